@@ -0,0 +1,58 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link Encryption#encrypt(String)} and {@link Encryption#decrypt(String)} across payload sizes.
+ *
+ * @author SunnyBat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int payloadLength;
+
+  private String plainText;
+  private String encrypted;
+
+  @Setup
+  public void setup() {
+    char[] chars = new char[payloadLength];
+    Arrays.fill(chars, 'x');
+    plainText = new String(chars);
+    encrypted = Encryption.encrypt(plainText);
+  }
+
+  @Benchmark
+  public String encrypt() {
+    return Encryption.encrypt(plainText);
+  }
+
+  @Benchmark
+  public String decrypt() {
+    return Encryption.decrypt(encrypted);
+  }
+
+  @Benchmark
+  public String roundTrip() {
+    return Encryption.decrypt(Encryption.encrypt(plainText));
+  }
+}
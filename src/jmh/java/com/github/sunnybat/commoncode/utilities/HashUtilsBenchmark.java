@@ -0,0 +1,43 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link HashUtils#PBKDF2(String, int, int)} across iteration counts.
+ *
+ * @author SunnyBat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashUtilsBenchmark {
+
+  @Param({"1000", "10000", "65536"})
+  public int iterations;
+
+  private HashUtils hashUtils;
+
+  @Setup
+  public void setup() {
+    hashUtils = new HashUtils(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+  }
+
+  @Benchmark
+  public String PBKDF2() {
+    return hashUtils.PBKDF2("correct horse battery staple", iterations, 128);
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks converting between bytes and hex Strings with {@link HexCodec}, both allocating and into reused buffers, and through the public
+ * {@link MD5Utils} entry points.
+ *
+ * @author SunnyBat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+
+  @Param({"16", "32", "1024"})
+  public int byteCount;
+
+  private byte[] bytes;
+  private String hex;
+  private char[] charBuffer;
+  private byte[] byteBuffer;
+
+  @Setup
+  public void setup() {
+    bytes = new byte[byteCount];
+    new Random(byteCount).nextBytes(bytes);
+    hex = HexCodec.encode(bytes);
+    charBuffer = new char[byteCount * 2];
+    byteBuffer = new byte[byteCount];
+  }
+
+  @Benchmark
+  public String encode() {
+    return HexCodec.encode(bytes);
+  }
+
+  @Benchmark
+  public char[] encodeInto() {
+    HexCodec.encode(bytes, 0, bytes.length, charBuffer, 0);
+    return charBuffer;
+  }
+
+  @Benchmark
+  public byte[] decode() {
+    return HexCodec.decode(hex);
+  }
+
+  @Benchmark
+  public byte[] decodeInto() {
+    HexCodec.decode(hex, byteBuffer, 0);
+    return byteBuffer;
+  }
+
+  @Benchmark
+  public String toHexString() {
+    return MD5Utils.toHexString(bytes);
+  }
+
+  @Benchmark
+  public byte[] toByteArray() {
+    return MD5Utils.toByteArray(hex);
+  }
+}
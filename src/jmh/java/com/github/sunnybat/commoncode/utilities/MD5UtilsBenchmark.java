@@ -0,0 +1,85 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks hashing streams and files with {@link MD5Utils}. Streams are hashed across stream and buffer sizes; files are hashed across file
+ * sizes only, since MD5Utils picks the buffer for them.
+ *
+ * @author SunnyBat
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MD5UtilsBenchmark {
+
+  @State(Scope.Thread)
+  public static class StreamState {
+
+    @Param({"1024", "1048576", "16777216"})
+    public int streamSize;
+
+    @Param({"1024", "8192", "65536"})
+    public int bufferSize;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+      data = new byte[streamSize];
+      new Random(streamSize).nextBytes(data);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class FileState {
+
+    @Param({"1024", "1048576", "16777216"})
+    public int fileSize;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+      byte[] data = new byte[fileSize];
+      new Random(fileSize).nextBytes(data);
+      file = Files.createTempFile("md5bench", ".bin");
+      Files.write(file, data);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Benchmark
+  public byte[] getByteMD5(StreamState state) throws NoSuchAlgorithmException, IOException {
+    return MD5Utils.getByteMD5(new ByteArrayInputStream(state.data), state.bufferSize);
+  }
+
+  @Benchmark
+  public byte[] getByteMD5File(FileState state) throws NoSuchAlgorithmException, IOException {
+    return MD5Utils.getByteMD5(state.file);
+  }
+}
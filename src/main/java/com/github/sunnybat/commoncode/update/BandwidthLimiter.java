@@ -0,0 +1,95 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A token bucket shared by every connection of a download. Tokens refill at the configured rate, and the bucket holds at most one second's worth
+ * of tokens. A read may take more tokens than are available, in which case the next read waits until the debt has been repaid. The rate can be
+ * changed and the download paused at any time; waiting readers pick up the change immediately.
+ *
+ * @author SunnyBat
+ */
+class BandwidthLimiter {
+
+  private long bytesPerSecond;
+  private boolean paused;
+  private double tokens;
+  private long lastRefill = System.nanoTime();
+
+  /**
+   * Sets the maximum download rate.
+   *
+   * @param bytesPerSecond The maximum rate in bytes per second, or 0 for unlimited
+   */
+  synchronized void setBytesPerSecond(long bytesPerSecond) {
+    refill();
+    this.bytesPerSecond = bytesPerSecond;
+    tokens = Math.min(tokens, bytesPerSecond);
+    notifyAll();
+  }
+
+  /**
+   * Gets the maximum download rate.
+   *
+   * @return The maximum rate in bytes per second, or 0 for unlimited
+   */
+  synchronized long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Pauses or resumes every connection using this BandwidthLimiter. Tokens do not accumulate while paused.
+   *
+   * @param paused True to pause, false to resume
+   */
+  synchronized void setPaused(boolean paused) {
+    refill();
+    this.paused = paused;
+    notifyAll();
+  }
+
+  /**
+   * Checks whether this BandwidthLimiter is paused.
+   *
+   * @return True if paused, false if not
+   */
+  synchronized boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Takes tokens for the given amount of bytes, blocking while paused or until enough tokens have refilled.
+   *
+   * @param bytes The amount of bytes just read
+   * @throws InterruptedIOException If interrupted while waiting
+   */
+  synchronized void acquire(int bytes) throws InterruptedIOException {
+    try {
+      while (true) {
+        while (paused) {
+          wait();
+        }
+        if (bytesPerSecond <= 0) {
+          return;
+        }
+        refill();
+        if (tokens >= 0) {
+          tokens -= bytes;
+          return;
+        }
+        wait(Math.max(1, (long) Math.ceil(-tokens * 1000 / bytesPerSecond)));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while download was throttled");
+    }
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    if (!paused && bytesPerSecond > 0) {
+      tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1000000000D);
+    }
+    lastRefill = now;
+  }
+}
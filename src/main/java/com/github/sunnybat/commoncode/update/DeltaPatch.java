@@ -0,0 +1,155 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Applies a binary delta to an installed file to rebuild a newer version of it. The patch format follows bsdiff 4.0, except that the three blocks
+ * are gzip-compressed (which the JDK supports) instead of bzip2-compressed:
+ * <pre>
+ * offset  length  contents
+ * 0       8       "CCDIFF01"
+ * 8       8       length of the compressed control block
+ * 16      8       length of the compressed diff block
+ * 24      8       size of the new file
+ * 32      ...     control block, then diff block, then extra block
+ * </pre>
+ * All lengths use bsdiff's sign-magnitude little-endian encoding. Patches can be produced with any bsdiff implementation by recompressing its
+ * blocks with gzip.
+ *
+ * @author SunnyBat
+ */
+class DeltaPatch {
+
+  private static final byte[] MAGIC = "CCDIFF01".getBytes(StandardCharsets.US_ASCII);
+  private static final int HEADER_SIZE = 32;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long MAP_WINDOW = 64 * 1024 * 1024; // A MappedByteBuffer is indexed by int, so files over 2GB are mapped in windows
+
+  private final byte[] patch;
+  private final long controlLength;
+  private final long diffLength;
+  private final long newSize;
+
+  /**
+   * Creates a new DeltaPatch from the given patch file contents.
+   *
+   * @param patch The patch file contents
+   * @throws IOException If the patch header is invalid
+   */
+  DeltaPatch(byte[] patch) throws IOException {
+    if (patch.length < HEADER_SIZE || !Arrays.equals(MAGIC, Arrays.copyOf(patch, MAGIC.length))) {
+      throw new IOException("Invalid delta patch header");
+    }
+    this.patch = patch;
+    controlLength = readOffset(patch, 8);
+    diffLength = readOffset(patch, 16);
+    newSize = readOffset(patch, 24);
+    if (controlLength < 0 || diffLength < 0 || newSize < 0 || HEADER_SIZE + controlLength + diffLength > patch.length) {
+      throw new IOException("Corrupt delta patch header");
+    }
+  }
+
+  /**
+   * Gets the size of the file this patch produces.
+   *
+   * @return The size of the new file, in bytes
+   */
+  long getNewSize() {
+    return newSize;
+  }
+
+  /**
+   * Applies this patch to the given file, writing the new file to the given OutputStream. The old file is memory-mapped rather than read onto the
+   * heap, 64MB at a time, so old files of any size can be patched.
+   *
+   * @param oldFile The file to apply the patch to
+   * @param newOut The OutputStream to write the new file to. This is not closed.
+   * @throws IOException If the patch is corrupt or an error occurs while reading or writing
+   */
+  void apply(File oldFile, OutputStream newOut) throws IOException {
+    try (FileChannel oldChannel = FileChannel.open(oldFile.toPath(), StandardOpenOption.READ);
+        DataInputStream control = openBlock(HEADER_SIZE, controlLength);
+        DataInputStream diff = openBlock(HEADER_SIZE + controlLength, diffLength);
+        DataInputStream extra = openBlock(HEADER_SIZE + controlLength + diffLength, patch.length - HEADER_SIZE - controlLength - diffLength)) {
+      long oldSize = oldChannel.size();
+      MappedByteBuffer old = null;
+      long windowStart = 0;
+      byte[] buffer = new byte[BUFFER_SIZE];
+      byte[] controlBytes = new byte[8];
+      long oldPos = 0;
+      long newPos = 0;
+      while (newPos < newSize) {
+        control.readFully(controlBytes);
+        long addLength = readOffset(controlBytes, 0);
+        control.readFully(controlBytes);
+        long copyLength = readOffset(controlBytes, 0);
+        control.readFully(controlBytes);
+        long seek = readOffset(controlBytes, 0);
+        if (addLength < 0 || copyLength < 0 || newPos + addLength + copyLength > newSize) {
+          throw new IOException("Corrupt delta patch control block");
+        }
+        long remaining = addLength;
+        while (remaining > 0) {
+          int chunk = (int) Math.min(remaining, buffer.length);
+          diff.readFully(buffer, 0, chunk);
+          long start = Math.max(oldPos, 0);
+          long end = Math.min(oldPos + chunk, oldSize);
+          if (start < end) {
+            if (old == null || start < windowStart || end > windowStart + old.capacity()) {
+              windowStart = start;
+              old = oldChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW, oldSize - windowStart));
+            }
+            for (long oldIndex = start; oldIndex < end; oldIndex++) {
+              buffer[(int) (oldIndex - oldPos)] += old.get((int) (oldIndex - windowStart));
+            }
+          }
+          newOut.write(buffer, 0, chunk);
+          oldPos += chunk;
+          remaining -= chunk;
+        }
+        remaining = copyLength;
+        while (remaining > 0) {
+          int chunk = (int) Math.min(remaining, buffer.length);
+          extra.readFully(buffer, 0, chunk);
+          newOut.write(buffer, 0, chunk);
+          remaining -= chunk;
+        }
+        newPos += addLength + copyLength;
+        oldPos += seek;
+      }
+    } catch (EOFException e) {
+      throw new IOException("Delta patch ended early", e);
+    }
+  }
+
+  private DataInputStream openBlock(long offset, long length) throws IOException {
+    InputStream block = new ByteArrayInputStream(patch, (int) offset, (int) length);
+    return new DataInputStream(new GZIPInputStream(block, BUFFER_SIZE));
+  }
+
+  /**
+   * Reads a bsdiff-encoded offset: eight little-endian bytes, with the high bit of the last byte as the sign.
+   */
+  private static long readOffset(byte[] bytes, int offset) {
+    long value = bytes[offset + 7] & 0x7F;
+    for (int i = 6; i >= 0; i--) {
+      value = (value << 8) | (bytes[offset + i] & 0xFF);
+    }
+    if ((bytes[offset + 7] & 0x80) != 0) {
+      value = -value;
+    }
+    return value;
+  }
+}
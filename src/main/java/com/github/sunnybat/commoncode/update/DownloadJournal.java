@@ -0,0 +1,197 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Properties;
+
+/**
+ * A small sidecar file recording how much of an update has been written to its temp file. This lets an interrupted download continue with a Range
+ * request instead of starting over. The journal stores the validators (ETag and Last-Modified) the server sent so a resumed download can be
+ * rejected if the remote file has changed since.
+ *
+ * @author SunnyBat
+ */
+class DownloadJournal {
+
+  private static final String KEY_URL = "url";
+  private static final String KEY_LENGTH = "length";
+  private static final String KEY_ETAG = "etag";
+  private static final String KEY_LAST_MODIFIED = "lastModified";
+  private static final String KEY_SEGMENTS = "segments";
+
+  private final File journalFile;
+  private final String url;
+  private final long length;
+  private final String eTag;
+  private final String lastModified;
+  private final long[][] segments;
+
+  /**
+   * Creates a new DownloadJournal. Each segment is an inclusive range of {first, next, last}, where next is the first byte that has not been
+   * written yet.
+   *
+   * @param journalFile The File to save the journal to
+   * @param url The URL being downloaded
+   * @param length The total length of the download
+   * @param eTag The ETag the server sent, or null if none
+   * @param lastModified The Last-Modified value the server sent, or null if none
+   * @param segments The segments of the download
+   */
+  DownloadJournal(File journalFile, String url, long length, String eTag, String lastModified, long[][] segments) {
+    this.journalFile = journalFile;
+    this.url = url;
+    this.length = length;
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+    this.segments = segments;
+  }
+
+  /**
+   * Gets the journal File used for the given temp file.
+   *
+   * @param tempFile The temp file the update is downloaded to
+   * @return The journal File
+   */
+  static File journalFor(File tempFile) {
+    return new File(tempFile.getPath() + ".journal");
+  }
+
+  /**
+   * Checks whether the given connection sent enough information to safely resume a download later.
+   *
+   * @param conn The connection to check
+   * @return True if the connection has a known length and at least one validator
+   */
+  static boolean isResumable(URLConnection conn) {
+    return conn.getContentLengthLong() > 0 && (conn.getHeaderField("ETag") != null || conn.getHeaderField("Last-Modified") != null);
+  }
+
+  /**
+   * Loads the journal from the given File.
+   *
+   * @param journalFile The File to load from
+   * @return The loaded DownloadJournal, or null if it does not exist or is unreadable
+   */
+  static DownloadJournal load(File journalFile) {
+    if (!journalFile.exists()) {
+      return null;
+    }
+    Properties props = new Properties();
+    try (InputStream in = new FileInputStream(journalFile)) {
+      props.load(in);
+      String[] ranges = props.getProperty(KEY_SEGMENTS, "").split(",");
+      long[][] segments = new long[ranges.length][];
+      for (int i = 0; i < ranges.length; i++) {
+        String[] parts = ranges[i].split(":");
+        segments[i] = new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+      }
+      return new DownloadJournal(journalFile, props.getProperty(KEY_URL), Long.parseLong(props.getProperty(KEY_LENGTH)),
+          props.getProperty(KEY_ETAG), props.getProperty(KEY_LAST_MODIFIED), segments);
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Unable to read download journal, starting download over");
+      return null;
+    }
+  }
+
+  /**
+   * Checks whether this journal describes the same remote file as the given connection.
+   *
+   * @param downloadURL The URL being downloaded
+   * @param conn The connection to compare validators against
+   * @return True if the download can be resumed using this journal
+   */
+  boolean matches(URL downloadURL, URLConnection conn) {
+    if (!isFor(downloadURL) || conn.getContentLengthLong() != length) {
+      return false;
+    } else if (eTag == null && lastModified == null) {
+      return false;
+    }
+    return equalsOrNull(eTag, conn.getHeaderField("ETag")) && equalsOrNull(lastModified, conn.getHeaderField("Last-Modified"));
+  }
+
+  /**
+   * Checks whether this journal was recorded for the given URL.
+   *
+   * @param downloadURL The URL being downloaded
+   * @return True if this journal was recorded for downloadURL, false if not
+   */
+  boolean isFor(URL downloadURL) {
+    return downloadURL.toString().equals(url);
+  }
+
+  private static boolean equalsOrNull(String one, String two) {
+    return one == null ? two == null : one.equals(two);
+  }
+
+  /**
+   * Gets the value to send in an If-Range header, preferring the ETag.
+   *
+   * @return The If-Range value, or null if there are no validators
+   */
+  String getIfRange() {
+    return eTag != null ? eTag : lastModified;
+  }
+
+  /**
+   * Gets the amount of bytes already written, according to this journal.
+   *
+   * @return The amount of bytes written
+   */
+  long getBytesWritten() {
+    long written = 0;
+    for (long[] segment : segments) {
+      written += segment[1] - segment[0];
+    }
+    return written;
+  }
+
+  /**
+   * Gets the segments recorded in this journal. Changes to the returned array are saved on the next {@link #save()}.
+   *
+   * @return The segments, as {first, next, last} ranges
+   */
+  long[][] getSegments() {
+    return segments;
+  }
+
+  /**
+   * Writes this journal to disk. The temp file must be flushed up to every recorded position before this is called.
+   *
+   * @throws IOException If the journal cannot be written
+   */
+  void save() throws IOException {
+    Properties props = new Properties();
+    props.setProperty(KEY_URL, url);
+    props.setProperty(KEY_LENGTH, Long.toString(length));
+    if (eTag != null) {
+      props.setProperty(KEY_ETAG, eTag);
+    }
+    if (lastModified != null) {
+      props.setProperty(KEY_LAST_MODIFIED, lastModified);
+    }
+    StringBuilder ranges = new StringBuilder();
+    for (long[] segment : segments) {
+      if (ranges.length() > 0) {
+        ranges.append(',');
+      }
+      ranges.append(segment[0]).append(':').append(segment[1]).append(':').append(segment[2]);
+    }
+    props.setProperty(KEY_SEGMENTS, ranges.toString());
+    File writeFile = new File(journalFile.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(writeFile)) {
+      props.store(out, "Update download journal");
+    }
+    if (!writeFile.renameTo(journalFile)) { // Windows will not rename over an existing file
+      journalFile.delete();
+      if (!writeFile.renameTo(journalFile)) {
+        throw new IOException("Unable to save download journal");
+      }
+    }
+  }
+}
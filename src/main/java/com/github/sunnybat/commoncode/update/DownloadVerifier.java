@@ -0,0 +1,130 @@
+package com.github.sunnybat.commoncode.update;
+
+import com.github.sunnybat.commoncode.utilities.HexCodec;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes an update as it is downloaded and compares the result to a published digest. Bytes are hashed in file order as they stream through.
+ * <p>
+ * A MessageDigest cannot combine the digests of separate ranges, so updates with a digest are always downloaded through a single stream. The only
+ * bytes read back from disk are the ones a resumed download wrote before it was interrupted, which are hashed with
+ * {@link #catchUp(java.io.File, long)}.
+ *
+ * @author SunnyBat
+ */
+class DownloadVerifier {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final MessageDigest mDigest;
+  private final String algorithm;
+  private final byte[] expected;
+  private long bytesHashed;
+
+  /**
+   * Creates a new DownloadVerifier.
+   *
+   * @param algorithm The MessageDigest algorithm to use, eg SHA-256 or MD5
+   * @param expectedDigest The expected digest as a hex String
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   * @throws IllegalArgumentException If expectedDigest is not valid hex
+   */
+  DownloadVerifier(String algorithm, String expectedDigest) throws NoSuchAlgorithmException {
+    this.algorithm = algorithm;
+    mDigest = MessageDigest.getInstance(algorithm);
+    expected = HexCodec.decode(expectedDigest);
+    if (expected.length != mDigest.getDigestLength()) {
+      throw new IllegalArgumentException("Expected " + algorithm + " digest has the wrong length");
+    }
+  }
+
+  /**
+   * Hashes the given bytes. These must directly follow the bytes already hashed.
+   *
+   * @param bytes The bytes to hash
+   * @param offset The offset to start at
+   * @param length The amount of bytes to hash
+   */
+  void update(byte[] bytes, int offset, int length) {
+    mDigest.update(bytes, offset, length);
+    bytesHashed += length;
+  }
+
+  /**
+   * Wraps the given OutputStream so that every byte written to it is hashed first.
+   *
+   * @param out The OutputStream to wrap
+   * @return The wrapped OutputStream
+   */
+  OutputStream wrap(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        update(new byte[]{(byte) b}, 0, 1);
+        out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        update(b, off, len);
+        out.write(b, off, len);
+      }
+    };
+  }
+
+  /**
+   * Hashes the bytes of the given file that have not been hashed yet, up to the given position. This is used for the bytes a resumed download
+   * already wrote, and reads them back from the file.
+   *
+   * @param file The file being downloaded
+   * @param position The position in the file up to which every byte has been written
+   * @throws IOException If an error occurs while reading the file
+   */
+  void catchUp(File file, long position) throws IOException {
+    if (position <= bytesHashed) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      while (bytesHashed < position) {
+        buffer.clear();
+        buffer.limit((int) Math.min(BUFFER_SIZE, position - bytesHashed));
+        int bytesRead = channel.read(buffer, bytesHashed);
+        if (bytesRead == -1) {
+          throw new IOException("Update file is shorter than expected");
+        }
+        buffer.flip();
+        mDigest.update(buffer);
+        bytesHashed += bytesRead;
+      }
+    }
+  }
+
+  /**
+   * Gets the amount of bytes hashed so far.
+   *
+   * @return The amount of bytes hashed
+   */
+  long getBytesHashed() {
+    return bytesHashed;
+  }
+
+  /**
+   * Checks the digest of every byte hashed against the expected digest.
+   *
+   * @throws IOException If the digests do not match
+   */
+  void verify() throws IOException {
+    if (!MessageDigest.isEqual(mDigest.digest(), expected)) {
+      throw new IOException("Update does not match the published " + algorithm + " digest");
+    }
+  }
+}
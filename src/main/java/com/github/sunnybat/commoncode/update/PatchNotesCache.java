@@ -0,0 +1,202 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded, in-memory cache of downloaded Patch Notes, keyed by the Patch Notes link. Each entry keeps the raw Patch Notes along with the ETag and
+ * Last-Modified values the server sent, so {@link PatchNotesDownloader} can revalidate it with a conditional GET instead of downloading it again.
+ * Entries younger than the TTL are used without contacting the server at all. The least recently used entries are evicted once the cache is full.
+ * <p>
+ * Entries are only kept in memory, so the first check after a restart always downloads the Patch Notes.
+ *
+ * @author SunnyBat
+ */
+public class PatchNotesCache {
+
+  private static final PatchNotesCache DEFAULT_CACHE = new PatchNotesCache(8, 5 * 60 * 1000);
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final Map<String, Entry> entries;
+
+  /**
+   * Creates a new PatchNotesCache.
+   *
+   * @param maxEntries The maximum number of Patch Notes links to cache
+   * @param ttlMillis How long, in milliseconds, a cached entry is used without revalidating it with the server. Use 0 to always revalidate.
+   * @throws IllegalArgumentException If maxEntries is less than 1 or ttlMillis is negative
+   */
+  public PatchNotesCache(int maxEntries, long ttlMillis) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries cannot be less than 1");
+    } else if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis cannot be negative");
+    }
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    entries = new LinkedHashMap<>(16, 0.75F, true);
+  }
+
+  /**
+   * Gets the shared PatchNotesCache. This holds up to 8 entries and revalidates entries older than five minutes.
+   *
+   * @return The shared PatchNotesCache
+   */
+  public static PatchNotesCache getDefaultCache() {
+    return DEFAULT_CACHE;
+  }
+
+  /**
+   * Gets the cached entry for the given link, even if it needs to be revalidated.
+   *
+   * @param link The Patch Notes link
+   * @return The cached entry, or null if none
+   */
+  synchronized Entry get(String link) {
+    return entries.get(link);
+  }
+
+  /**
+   * Caches the given entry, evicting the least recently used entry if the cache is full.
+   *
+   * @param link The Patch Notes link
+   * @param entry The entry to cache
+   */
+  synchronized void put(String link, Entry entry) {
+    entries.put(link, entry);
+    Iterator<Entry> it = entries.values().iterator();
+    while (entries.size() > maxEntries && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * Checks whether the given entry can be used without revalidating it.
+   *
+   * @param entry The entry to check
+   * @return True if the entry is younger than the TTL
+   */
+  boolean isFresh(Entry entry) {
+    return System.currentTimeMillis() - entry.getValidatedAt() < ttlMillis;
+  }
+
+  /**
+   * Removes every cached entry.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Gets the number of cached entries.
+   *
+   * @return The number of cached entries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * A cached Patch Notes download. The results of the most recent parse are kept with it, so a cache hit for the same current version does not
+   * parse the Patch Notes again. If the download stopped early at the current version's marker, only the notes read are kept, and the entry can
+   * only be used to read the notes newer than a version it contains.
+   */
+  static class Entry {
+
+    private final String body;
+    private final String eTag;
+    private final String lastModified;
+    private final Set<String> partialVersions;
+    private volatile long validatedAt;
+    private String parsedVersion;
+    private boolean parsedNewerOnly;
+    private String versionNotes;
+    private Map<String, Integer> versionIndex;
+    private int updateLevel;
+    private String deltaLink;
+    private String digestAlgorithm;
+    private String digest;
+
+    /**
+     * Creates a new Entry.
+     *
+     * @param body The Patch Notes that were read
+     * @param eTag The ETag the server sent, or null if none
+     * @param lastModified The Last-Modified value the server sent, or null if none
+     * @param partialVersions The versions in body if reading stopped early, or null if body is the whole Patch Notes
+     */
+    Entry(String body, String eTag, String lastModified, Set<String> partialVersions) {
+      this.body = body;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+      this.partialVersions = partialVersions == null ? null : new HashSet<>(partialVersions);
+      validatedAt = System.currentTimeMillis();
+    }
+
+    String getBody() {
+      return body;
+    }
+
+    String getETag() {
+      return eTag;
+    }
+
+    String getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * Checks whether this entry holds enough of the Patch Notes to parse them for the given version.
+     *
+     * @param version The current version to parse for
+     * @param newerOnly True if only the notes newer than version are needed
+     * @return True if this entry can be used
+     */
+    boolean covers(String version, boolean newerOnly) {
+      return partialVersions == null || newerOnly && partialVersions.contains(version);
+    }
+
+    long getValidatedAt() {
+      return validatedAt;
+    }
+
+    /**
+     * Marks this entry as just revalidated with the server.
+     */
+    void revalidated() {
+      validatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Saves the results of parsing this entry's Patch Notes for the given version.
+     */
+    synchronized void setParsed(String version, boolean newerOnly, String versionNotes, Map<String, Integer> versionIndex, int updateLevel,
+        String deltaLink, String digestAlgorithm, String digest) {
+      this.parsedVersion = version;
+      this.parsedNewerOnly = newerOnly;
+      this.versionNotes = versionNotes;
+      this.versionIndex = versionIndex;
+      this.updateLevel = updateLevel;
+      this.deltaLink = deltaLink;
+      this.digestAlgorithm = digestAlgorithm;
+      this.digest = digest;
+    }
+
+    /**
+     * Copies the saved parse results into the given PatchNotesDownloader if they were parsed for the given version in the same way.
+     *
+     * @return True if the results were copied, false if the Patch Notes must be parsed again
+     */
+    synchronized boolean copyParsedTo(PatchNotesDownloader notes, String version, boolean newerOnly) {
+      if (parsedVersion == null || !parsedVersion.equals(version) || parsedNewerOnly != newerOnly) {
+        return false;
+      }
+      notes.loadParsed(versionNotes, versionIndex, updateLevel, deltaLink, digestAlgorithm, digest);
+      return true;
+    }
+  }
+}
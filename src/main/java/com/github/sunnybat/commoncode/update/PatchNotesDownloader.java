@@ -1,11 +1,18 @@
 package com.github.sunnybat.commoncode.update;
 
+import com.github.sunnybat.commoncode.utilities.DataTracker;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
@@ -13,10 +20,18 @@ import java.net.URLConnection;
  */
 public class PatchNotesDownloader {
 
+  private static final int CONNECT_TIMEOUT = 15000; // ms
+  private static final int READ_TIMEOUT = 30000; // ms
   private String versionNotes;
+  private Map<String, Integer> versionIndex = Collections.emptyMap();
+  private String deltaLink;
+  private String digestAlgorithm;
+  private String digest;
   private int updateLevel = -2;
   private int minimumUpdateLevel = UPDATE_MINOR;
   private final String PATCH_NOTES_LINK; // No need to give user this link, I don't think...
+  private PatchNotesCache cache;
+  private DataTracker dataTracker;
   /**
    * {@link #getUpdateLevel()} returns this if the Patch Notes have not been downloaded yet.
    */
@@ -56,9 +71,31 @@ public class PatchNotesDownloader {
     PATCH_NOTES_LINK = patchNotesLink;
   }
 
+  /**
+   * Sets the cache to use when downloading the Patch Notes. Cached Patch Notes are revalidated with If-None-Match and If-Modified-Since, and are
+   * reused without being downloaded or parsed again if the server responds that they have not changed.
+   *
+   * @param cache The cache to use, or null to always download the Patch Notes
+   * @see PatchNotesCache#getDefaultCache()
+   */
+  public void setCache(PatchNotesCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the DataTracker to add downloaded Patch Notes bytes to. Patch Notes loaded from the cache, or revalidated without being downloaded again,
+   * add nothing.
+   *
+   * @param dataTracker The DataTracker to use, or null for none
+   */
+  public void setDataTracker(DataTracker dataTracker) {
+    this.dataTracker = dataTracker;
+  }
+
   /**
    * Returns the current Version Notes found. This returns all of the notes after the supplied version (useful for things like patch notes when
-   * updating). Note that the version must be the same as in the update notes, otherwise this will return
+   * updating). Note that the version must be the same as in the update notes, otherwise this will return all of the version notes. The position
+   * of every version is indexed while the notes are downloaded, so this does not search the notes.
    *
    * @param version The Version (raw String of version number)
    * @return The version notes after the given version, or null if notes have not been retrieved yet
@@ -67,13 +104,12 @@ public class PatchNotesDownloader {
     if (versionNotes == null) {
       return null;
     }
-    String versNotes = versionNotes;
-    try {
-      versNotes = versNotes.substring(0, versNotes.indexOf("~~~" + version + "~~~")).trim();
-    } catch (IndexOutOfBoundsException e) {
+    Integer end = versionIndex.get(version);
+    if (end == null) {
       System.out.println("ERROR: Unable to find update notes for version " + version);
+      return versionNotes;
     }
-    return versNotes;
+    return versionNotes.substring(0, end).trim();
   }
 
   /**
@@ -98,23 +134,211 @@ public class PatchNotesDownloader {
    * @see #getVersionNotes()
    */
   public void downloadVersionNotes(String currentVersion) throws IOException {
+    downloadVersionNotes(currentVersion, false);
+  }
+
+  /**
+   * Loads the current version notes from online. If newerNotesOnly is true, this stops reading the Patch Notes as soon as the current version is
+   * found, so only the notes for newer versions are downloaded and stored. The update level is the same either way.<br>
+   * Note that if this method throws an IOException, a new PatchNotesDownloader object should be created to try again.
+   *
+   * @param currentVersion The current version of the program
+   * @param newerNotesOnly True to stop reading at the current version, false to load every version's notes
+   * @throws java.io.IOException If an error occurs while downloading the Patch Notes
+   * @see #downloadVersionNotes(java.lang.String)
+   */
+  public void downloadVersionNotes(String currentVersion, boolean newerNotesOnly) throws IOException {
     setUpdateLevel(UPDATE_ERROR); // So if something goes wrong, it's at this error level
+    PatchNotesCache.Entry cached = cache == null ? null : cache.get(PATCH_NOTES_LINK);
+    if (cached != null && !cached.covers(currentVersion, newerNotesOnly)) {
+      cached = null; // Only the notes up to another version were kept, so they must be downloaded again
+    }
+    if (cached != null && cache.isFresh(cached)) {
+      loadCached(cached, currentVersion, newerNotesOnly);
+      return;
+    }
     URLConnection inputConnection;
-    InputStream textInputStream;
-    BufferedReader myReader;
     URL patchNotesURL = new URL(PATCH_NOTES_LINK);
     inputConnection = patchNotesURL.openConnection();
-    textInputStream = inputConnection.getInputStream();
-    myReader = new BufferedReader(new InputStreamReader(textInputStream));
+    inputConnection.setConnectTimeout(CONNECT_TIMEOUT); // Blocking reads ignore interrupts, so a stalled server would otherwise hang forever
+    inputConnection.setReadTimeout(READ_TIMEOUT);
+    if (cached != null && inputConnection instanceof HttpURLConnection) {
+      if (cached.getETag() != null) {
+        inputConnection.setRequestProperty("If-None-Match", cached.getETag());
+      }
+      if (cached.getLastModified() != null) {
+        inputConnection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+      }
+      if (((HttpURLConnection) inputConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        System.out.println("Version notes have not changed, using cached version notes.");
+        cached.revalidated();
+        loadCached(cached, currentVersion, newerNotesOnly);
+        return;
+      }
+    }
+    CountingInputStream in = new CountingInputStream(inputConnection.getInputStream());
+    try {
+      downloadBody(inputConnection, in, currentVersion, newerNotesOnly);
+    } finally {
+      if (dataTracker != null && in.count > 0) {
+        dataTracker.addDataUsed(DataTracker.Category.PATCH_NOTES, in.count);
+      }
+    }
+    System.out.println("Finished loading version notes.");
+  }
+
+  /**
+   * Parses the Patch Notes body from the given stream, and caches it if a cache is set. If newerNotesOnly is true, reading stops at the current
+   * version's marker even when caching, and only the lines read are cached.
+   */
+  private void downloadBody(URLConnection inputConnection, InputStream in, String currentVersion, boolean newerNotesOnly) throws IOException {
+    String eTag = inputConnection.getHeaderField("ETag");
+    String lastModified = inputConnection.getHeaderField("Last-Modified");
+    StringBuilder body = cache != null && (eTag != null || lastModified != null) ? new StringBuilder() : null;
+    boolean readAll;
+    try (BufferedReader myReader = new BufferedReader(new InputStreamReader(in))) {
+      readAll = parseVersionNotes(myReader, currentVersion, newerNotesOnly, body);
+    }
+    if (body != null) {
+      PatchNotesCache.Entry entry = new PatchNotesCache.Entry(body.toString(), eTag, lastModified, readAll ? null : versionIndex.keySet());
+      entry.setParsed(currentVersion, newerNotesOnly, versionNotes, versionIndex, updateLevel, deltaLink, digestAlgorithm, digest);
+      cache.put(PATCH_NOTES_LINK, entry);
+    }
+  }
+
+  /**
+   * Counts the bytes read through it, so only the bytes actually downloaded are added to the DataTracker.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int bytesRead = super.read(b, off, len);
+      if (bytesRead > 0) {
+        count += bytesRead;
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+
+  /**
+   * Loads the Patch Notes from the given cache entry, parsing them again only if they were last parsed for a different version.
+   */
+  private void loadCached(PatchNotesCache.Entry cached, String currentVersion, boolean newerNotesOnly) throws IOException {
+    if (!cached.copyParsedTo(this, currentVersion, newerNotesOnly)) {
+      parseVersionNotes(new BufferedReader(new StringReader(cached.getBody())), currentVersion, newerNotesOnly, null);
+      cached.setParsed(currentVersion, newerNotesOnly, versionNotes, versionIndex, updateLevel, deltaLink, digestAlgorithm, digest);
+    }
+  }
+
+  /**
+   * Loads previously parsed Patch Notes.
+   */
+  void loadParsed(String versionNotes, Map<String, Integer> versionIndex, int updateLevel, String deltaLink, String digestAlgorithm, String digest) {
+    this.versionNotes = versionNotes;
+    this.versionIndex = versionIndex;
+    setUpdateLevel(updateLevel);
+    this.deltaLink = deltaLink;
+    this.digestAlgorithm = digestAlgorithm;
+    this.digest = digest;
+  }
+
+  /**
+   * Creates a new PatchNotesDownloader with the same link, cache, DataTracker and BETA setting as this one, but nothing loaded. This lets a check
+   * run without touching this PatchNotesDownloader until it finishes.
+   *
+   * @return The new PatchNotesDownloader
+   */
+  PatchNotesDownloader copySettings() {
+    PatchNotesDownloader copy = new PatchNotesDownloader(PATCH_NOTES_LINK);
+    copy.cache = cache;
+    copy.dataTracker = dataTracker;
+    copy.minimumUpdateLevel = minimumUpdateLevel;
+    return copy;
+  }
+
+  /**
+   * Loads the results of the given PatchNotesDownloader's last download into this one. The update level is set the same way a download would set
+   * it, and the notes are only replaced if the other PatchNotesDownloader loaded any.
+   *
+   * @param other The PatchNotesDownloader to load from
+   */
+  void loadResultsFrom(PatchNotesDownloader other) {
+    if (other.versionNotes != null) {
+      loadParsed(other.versionNotes, other.versionIndex, other.updateLevel, other.deltaLink, other.digestAlgorithm, other.digest);
+    } else {
+      setUpdateLevel(other.updateLevel);
+    }
+  }
+
+  /**
+   * Parses the Patch Notes from the given reader in a single pass. This parses tokens from the version notes (and does not add them into the version
+   * notes String), and indexes where each version's marker starts.
+   *
+   * @param myReader The reader to parse from
+   * @param currentVersion The current version of the program
+   * @param newerNotesOnly True to stop reading once the current version's marker is found
+   * @param rawText Every line read is appended to this, untrimmed and including tokens, or null to not keep them
+   * @return True if every line was read, false if reading stopped at the current version's marker
+   * @throws IOException If an error occurs while reading
+   */
+  private boolean parseVersionNotes(BufferedReader myReader, String currentVersion, boolean newerNotesOnly, StringBuilder rawText)
+      throws IOException {
     String line;
     String lineSeparator = System.getProperty("line.separator", "\n");
     StringBuilder allText = new StringBuilder();
+    Map<String, Integer> index = new HashMap<>();
     boolean versionFound = false;
+    int versionsSeen = 0;
+    boolean readAll = true;
+    deltaLink = null;
+    digestAlgorithm = null;
+    digest = null;
     while ((line = myReader.readLine()) != null) {
+      if (rawText != null) {
+        rawText.append(line).append('\n');
+      }
       line = line.trim();
-      if (line.contains("~~~" + currentVersion + "~~~")) {
-        setUpdateLevel(UPDATE_NONE);
-        versionFound = true;
+      int markerStart = line.indexOf("~~~");
+      if (markerStart != -1) {
+        int markerEnd = line.indexOf("~~~", markerStart + 3);
+        if (markerEnd > markerStart + 3) {
+          String version = line.substring(markerStart + 3, markerEnd);
+          if (!index.containsKey(version)) {
+            index.put(version, allText.length() + markerStart);
+          }
+          versionsSeen++;
+          if (version.equals(currentVersion)) {
+            setUpdateLevel(UPDATE_NONE);
+            versionFound = true;
+            if (newerNotesOnly) {
+              readAll = false;
+              break;
+            }
+          }
+        }
       }
       if (line.startsWith("TOKEN:")) {
         String d = line.substring(6).toUpperCase();
@@ -139,6 +363,14 @@ public class PatchNotesDownloader {
                 break;
             }
           }
+        } else if (d.startsWith("DIGEST:")) {
+          if (versionsSeen <= 1 && !versionFound) { // Only the most recent version's digest describes the update
+            parseDigestToken(line.substring(13));
+          }
+        } else if (d.startsWith("DELTA:")) {
+          if (versionsSeen <= 1 && !versionFound) {
+            parseDeltaToken(line.substring(12), currentVersion);
+          }
         } else {
           System.out.println("Unknown token: " + d);
         }
@@ -147,9 +379,73 @@ public class PatchNotesDownloader {
         allText.append(lineSeparator);
       }
     }
+    int leading = 0; // trim() shifts every indexed position back by the amount of leading whitespace
+    while (leading < allText.length() && allText.charAt(leading) <= ' ') {
+      leading++;
+    }
     versionNotes = allText.toString().trim();
-    System.out.println("Finished loading version notes.");
-    myReader.close();
+    for (Map.Entry<String, Integer> entry : index.entrySet()) {
+      entry.setValue(Math.min(versionNotes.length(), Math.max(0, entry.getValue() - leading)));
+    }
+    versionIndex = Collections.unmodifiableMap(index);
+    return readAll;
+  }
+
+  /**
+   * Parses a DIGEST token in the format ALGORITHM:HEX, eg SHA-256:0A1B...
+   */
+  private void parseDigestToken(String token) {
+    int split = token.lastIndexOf(':');
+    if (split <= 0) {
+      System.out.println("Invalid digest token: " + token);
+      return;
+    }
+    digestAlgorithm = token.substring(0, split).trim().toUpperCase();
+    digest = token.substring(split + 1).trim().toUpperCase();
+  }
+
+  /**
+   * Parses a DELTA token in the format BASEVERSION:LINK, eg 1.2.3:https://example.com/1.2.3-1.2.4.patch. The link is only kept if the base version
+   * is the current version.
+   */
+  private void parseDeltaToken(String token, String currentVersion) {
+    int split = token.indexOf(':');
+    if (split <= 0) {
+      System.out.println("Invalid delta token: " + token);
+      return;
+    }
+    if (token.substring(0, split).trim().equals(currentVersion)) {
+      deltaLink = token.substring(split + 1).trim();
+    }
+  }
+
+  /**
+   * Gets the link to a delta patch that updates the current version to the most recent version. The Patch Notes list these with a
+   * TOKEN:DELTA:BASEVERSION:LINK line in the most recent version's notes.
+   *
+   * @return The delta patch link, or null if there is no delta patch for the current version
+   */
+  public String getDeltaLink() {
+    return deltaLink;
+  }
+
+  /**
+   * Gets the name of the MessageDigest algorithm used for {@link #getDigest()}. The Patch Notes list this with a TOKEN:DIGEST:ALGORITHM:HEX line in
+   * the most recent version's notes.
+   *
+   * @return The digest algorithm, eg SHA-256, or null if the Patch Notes do not list a digest
+   */
+  public String getDigestAlgorithm() {
+    return digestAlgorithm;
+  }
+
+  /**
+   * Gets the published digest of the most recent version's update file.
+   *
+   * @return The digest as an uppercase hex String, or null if the Patch Notes do not list a digest
+   */
+  public String getDigest() {
+    return digest;
   }
 
   /**
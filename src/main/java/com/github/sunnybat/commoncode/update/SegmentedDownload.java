@@ -0,0 +1,323 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads a file over multiple concurrent HTTP Range requests. Each segment is written directly at its own offset in the target file, so no
+ * reassembly pass is needed once every segment has finished. Segments that were partially written by a previous attempt continue from where they
+ * stopped.
+ *
+ * @author SunnyBat
+ */
+class SegmentedDownload {
+
+  /**
+   * The smallest segment worth opening a separate connection for.
+   */
+  static final long MIN_SEGMENT_SIZE = 256 * 1024;
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int CONNECT_TIMEOUT = 15000; // ms
+  private static final int READ_TIMEOUT = 30000; // ms, so a stalled segment fails instead of hanging awaitCompletion()
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final URL downloadURL;
+  private final File targetFile;
+  private final long fileSize;
+  private final long[] segmentFirst;
+  private final long[] segmentLast;
+  private final AtomicLongArray segmentNext;
+  private final String ifRange;
+  private final BandwidthLimiter limiter;
+  private final AtomicLong bytesDownloaded = new AtomicLong();
+  private final List<Future<Void>> segments = new ArrayList<>();
+  private ExecutorService executor;
+  private RandomAccessFile targetAccess;
+
+  /**
+   * Creates a new SegmentedDownload. Note that the download does not begin until {@link #start()} is called.
+   *
+   * @param downloadURL The URL to download from
+   * @param targetFile The File to write the download to
+   * @param fileSize The size of the remote file, in bytes
+   * @param segments The segments to download, as {first, next, last} ranges
+   * @param ifRange The validator to send in an If-Range header, or null to not send one
+   * @param limiter The BandwidthLimiter shared by every segment
+   * @see #split(long, int)
+   */
+  SegmentedDownload(URL downloadURL, File targetFile, long fileSize, long[][] segments, String ifRange, BandwidthLimiter limiter) {
+    if (fileSize < 1) {
+      throw new IllegalArgumentException("fileSize must be known to download in segments");
+    } else if (segments.length < 1) {
+      throw new IllegalArgumentException("segments cannot be empty");
+    }
+    this.downloadURL = downloadURL;
+    this.targetFile = targetFile;
+    this.fileSize = fileSize;
+    this.ifRange = ifRange;
+    this.limiter = limiter;
+    segmentFirst = new long[segments.length];
+    segmentLast = new long[segments.length];
+    segmentNext = new AtomicLongArray(segments.length);
+    for (int i = 0; i < segments.length; i++) {
+      segmentFirst[i] = segments[i][0];
+      segmentNext.set(i, segments[i][1]);
+      segmentLast[i] = segments[i][2];
+    }
+  }
+
+  /**
+   * Splits a file into evenly-sized segments. Fewer segments than requested are returned for small files.
+   *
+   * @param fileSize The size of the file, in bytes
+   * @param connections The maximum number of segments to create
+   * @return The segments, as {first, next, last} ranges
+   */
+  static long[][] split(long fileSize, int connections) {
+    if (connections < 1) {
+      throw new IllegalArgumentException("connections cannot be less than 1");
+    }
+    int count = (int) Math.max(1, Math.min(connections, fileSize / MIN_SEGMENT_SIZE));
+    long segmentSize = fileSize / count;
+    long[][] segments = new long[count][];
+    for (int i = 0; i < count; i++) {
+      long first = i * segmentSize;
+      long last = i == count - 1 ? fileSize - 1 : first + segmentSize - 1;
+      segments[i] = new long[]{first, first, last};
+    }
+    return segments;
+  }
+
+  /**
+   * Checks whether the given connection advertises support for byte Range requests and has a known length.
+   *
+   * @param conn The connection to check
+   * @return True if the resource can be downloaded in segments, false if not
+   */
+  static boolean supportsRanges(URLConnection conn) {
+    String acceptRanges = conn.getHeaderField("Accept-Ranges");
+    return acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("bytes") && conn.getContentLengthLong() > 0;
+  }
+
+  /**
+   * Starts downloading every segment on a bounded executor. This method does not block.
+   *
+   * @throws IOException If the target file cannot be opened
+   */
+  synchronized void start() throws IOException {
+    if (executor != null) {
+      throw new IllegalStateException("Download has already been started");
+    }
+    targetAccess = new RandomAccessFile(targetFile, "rw");
+    if (targetAccess.length() != fileSize) {
+      targetAccess.setLength(fileSize);
+    }
+    final FileChannel channel = targetAccess.getChannel();
+    executor = Executors.newFixedThreadPool(getConnections(), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "Update Segment " + THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    for (int i = 0; i < segmentFirst.length; i++) {
+      if (segmentNext.get(i) <= segmentLast[i]) {
+        segments.add(executor.submit(new Segment(channel, i)));
+      }
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Waits up to the given amount of time for every segment to finish.
+   *
+   * @param timeoutMillis The maximum time to wait, in milliseconds
+   * @return True if the download has finished, false if segments are still downloading
+   * @throws IOException If any segment failed to download
+   * @throws InterruptedException If interrupted while waiting
+   */
+  boolean awaitCompletion(long timeoutMillis) throws IOException, InterruptedException {
+    boolean finished = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    for (Future<Void> segment : segments) {
+      if (segment.isDone()) {
+        try {
+          segment.get();
+        } catch (ExecutionException e) {
+          cancel();
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw new IOException("Error downloading update segment", cause);
+        }
+      }
+    }
+    if (finished) {
+      close();
+    }
+    return finished;
+  }
+
+  /**
+   * Stops every segment that is still downloading and releases the target file.
+   */
+  synchronized void cancel() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    close();
+  }
+
+  private synchronized void close() {
+    if (targetAccess != null) {
+      try {
+        targetAccess.close();
+      } catch (IOException e) {
+      }
+      targetAccess = null;
+    }
+  }
+
+  /**
+   * Gets the total amount of bytes downloaded by this SegmentedDownload across every segment. This does not include bytes written by a previous
+   * attempt.
+   *
+   * @return The amount of bytes downloaded
+   */
+  long getBytesDownloaded() {
+    return bytesDownloaded.get();
+  }
+
+  /**
+   * Gets the total amount of bytes written to the target file, including bytes written by a previous attempt.
+   *
+   * @return The amount of bytes written
+   */
+  long getBytesWritten() {
+    long written = 0;
+    for (int i = 0; i < segmentFirst.length; i++) {
+      written += segmentNext.get(i) - segmentFirst[i];
+    }
+    return written;
+  }
+
+  /**
+   * Gets the amount of bytes at the start of the target file that have all been written. This is where the first unfinished segment has reached.
+   *
+   * @return The length of the fully-written region at the start of the file
+   */
+  long getContiguousBytes() {
+    for (int i = 0; i < segmentFirst.length; i++) {
+      if (segmentNext.get(i) <= segmentLast[i]) {
+        return segmentNext.get(i);
+      }
+    }
+    return fileSize;
+  }
+
+  /**
+   * Copies the current progress of every segment into the given array. Every recorded byte has already been written to the target file.
+   *
+   * @param segments The {first, next, last} ranges to update
+   */
+  void copyProgressTo(long[][] segments) {
+    for (int i = 0; i < segmentFirst.length; i++) {
+      segments[i][1] = segmentNext.get(i);
+    }
+  }
+
+  /**
+   * Gets the number of connections used.
+   *
+   * @return The number of connections
+   */
+  int getConnections() {
+    int remaining = 0;
+    for (int i = 0; i < segmentFirst.length; i++) {
+      if (segmentNext.get(i) <= segmentLast[i]) {
+        remaining++;
+      }
+    }
+    return Math.max(1, remaining);
+  }
+
+  /**
+   * Downloads a single inclusive byte range and writes it at its offset in the target file.
+   */
+  private class Segment implements Callable<Void> {
+
+    private final FileChannel channel;
+    private final int index;
+
+    public Segment(FileChannel channel, int index) {
+      this.channel = channel;
+      this.index = index;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      long first = segmentNext.get(index);
+      long last = segmentLast[index];
+      HttpURLConnection conn = (HttpURLConnection) downloadURL.openConnection();
+      conn.setConnectTimeout(CONNECT_TIMEOUT);
+      conn.setReadTimeout(READ_TIMEOUT);
+      conn.setRequestProperty("Range", "bytes=" + first + "-" + last);
+      if (ifRange != null) {
+        conn.setRequestProperty("If-Range", ifRange);
+      }
+      try {
+        int responseCode = conn.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_OK && ifRange != null) {
+          throw new IOException("Update changed on the server while downloading");
+        } else if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+          throw new IOException("Server did not honor Range request (HTTP " + responseCode + ")");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = first;
+        try (InputStream in = conn.getInputStream()) {
+          int bytesRead;
+          while (position <= last && (bytesRead = in.read(buffer.array())) != -1) {
+            if (Thread.currentThread().isInterrupted()) {
+              throw new IOException("Segment download cancelled");
+            }
+            bytesRead = (int) Math.min(bytesRead, last - position + 1);
+            limiter.acquire(bytesRead);
+            buffer.limit(bytesRead);
+            buffer.position(0);
+            while (buffer.hasRemaining()) {
+              position += channel.write(buffer, position);
+            }
+            segmentNext.set(index, position);
+            bytesDownloaded.addAndGet(bytesRead);
+          }
+        }
+        if (position <= last) {
+          throw new IOException("Segment ended early at byte " + position + " of " + last);
+        }
+        return null;
+      } finally {
+        conn.disconnect();
+      }
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Runs update checks without blocking the calling thread. Each method returns a CompletableFuture that completes once the underlying
+ * {@link PatchNotesDownloader} or {@link UpdateDownloader} call finishes. Cancelling a returned future interrupts the check if it is still running,
+ * and a timeout can be set so a check that hangs completes exceptionally with a TimeoutException instead.
+ * <p>
+ * Blocking network reads ignore interrupts, so a cancelled or timed-out check may keep running until its connection times out. Patch Notes are
+ * downloaded into a separate PatchNotesDownloader and only loaded into the shared one if the check finishes first, so a check that is still running
+ * in the background never changes the shared PatchNotesDownloader.
+ *
+ * @author SunnyBat
+ */
+public class UpdateChecker {
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static ExecutorService sharedExecutor;
+  private static ScheduledExecutorService timeoutScheduler;
+  private final PatchNotesDownloader patchNotes;
+  private final UpdateDownloader updateDownloader;
+  private final ExecutorService executor;
+  private long timeoutMillis;
+
+  /**
+   * Creates a new UpdateChecker that runs checks on a shared executor with two threads.
+   *
+   * @param patchNotes The PatchNotesDownloader to check with, or null if Patch Notes will not be checked
+   * @param updateDownloader The UpdateDownloader to check with, or null if the update size will not be checked
+   */
+  public UpdateChecker(PatchNotesDownloader patchNotes, UpdateDownloader updateDownloader) {
+    this(patchNotes, updateDownloader, getSharedExecutor());
+  }
+
+  /**
+   * Creates a new UpdateChecker that runs checks on the given executor.
+   *
+   * @param patchNotes The PatchNotesDownloader to check with, or null if Patch Notes will not be checked
+   * @param updateDownloader The UpdateDownloader to check with, or null if the update size will not be checked
+   * @param executor The executor to run checks on
+   * @throws IllegalArgumentException If executor is null
+   */
+  public UpdateChecker(PatchNotesDownloader patchNotes, UpdateDownloader updateDownloader, ExecutorService executor) {
+    if (executor == null) {
+      throw new IllegalArgumentException("executor cannot be null");
+    }
+    this.patchNotes = patchNotes;
+    this.updateDownloader = updateDownloader;
+    this.executor = executor;
+  }
+
+  private static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Update Check " + THREAD_COUNT.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return sharedExecutor;
+  }
+
+  private static synchronized ScheduledExecutorService getTimeoutScheduler() {
+    if (timeoutScheduler == null) {
+      timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Update Check Timeout");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return timeoutScheduler;
+  }
+
+  /**
+   * Sets how long each check may run before its future completes exceptionally with a TimeoutException. The check is interrupted when it times
+   * out.
+   *
+   * @param timeout The timeout, or 0 for no timeout
+   * @param unit The unit of timeout
+   * @throws IllegalArgumentException If timeout is negative
+   */
+  public void setTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout cannot be negative");
+    }
+    timeoutMillis = unit.toMillis(timeout);
+  }
+
+  /**
+   * Downloads the Patch Notes in the background.
+   *
+   * @param currentVersion The current version of the program
+   * @return A future that completes with the PatchNotesDownloader once the Patch Notes are loaded
+   * @throws IllegalStateException If this UpdateChecker has no PatchNotesDownloader
+   * @see PatchNotesDownloader#downloadVersionNotes(String)
+   */
+  public CompletableFuture<PatchNotesDownloader> downloadVersionNotes(final String currentVersion) {
+    if (patchNotes == null) {
+      throw new IllegalStateException("No PatchNotesDownloader set");
+    }
+    final PatchNotesDownloader checkNotes = patchNotes.copySettings();
+    return submit(new Callable<PatchNotesDownloader>() {
+      @Override
+      public PatchNotesDownloader call() throws Exception {
+        checkNotes.downloadVersionNotes(currentVersion);
+        return patchNotes;
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        synchronized (patchNotes) {
+          patchNotes.loadResultsFrom(checkNotes);
+        }
+      }
+    });
+  }
+
+  /**
+   * Downloads the Patch Notes in the background and gets the update level.
+   *
+   * @param currentVersion The current version of the program
+   * @return A future that completes with the update level, which is one of the UPDATE constants in PatchNotesDownloader
+   * @throws IllegalStateException If this UpdateChecker has no PatchNotesDownloader
+   * @see PatchNotesDownloader#getUpdateLevel()
+   */
+  public CompletableFuture<Integer> getUpdateLevel(String currentVersion) {
+    final CompletableFuture<PatchNotesDownloader> download = downloadVersionNotes(currentVersion);
+    CompletableFuture<Integer> level = download.thenApply(new Function<PatchNotesDownloader, Integer>() {
+      @Override
+      public Integer apply(PatchNotesDownloader notes) {
+        return notes.getUpdateLevel();
+      }
+    });
+    level.whenComplete(new BiConsumer<Integer, Throwable>() {
+      @Override
+      public void accept(Integer value, Throwable error) {
+        download.cancel(true); // Does nothing if the download has already finished
+      }
+    });
+    return level;
+  }
+
+  /**
+   * Gets the size of the update in the background.
+   *
+   * @return A future that completes with the size of the update, in bytes
+   * @throws IllegalStateException If this UpdateChecker has no UpdateDownloader
+   * @see UpdateDownloader#getUpdateSize()
+   */
+  public CompletableFuture<Long> getUpdateSize() {
+    if (updateDownloader == null) {
+      throw new IllegalStateException("No UpdateDownloader set");
+    }
+    return submit(new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        return updateDownloader.getUpdateSize();
+      }
+    }, null);
+  }
+
+  /**
+   * Runs the given task on this UpdateChecker's executor. If the returned future is cancelled or times out before the task finishes, the task is
+   * interrupted.
+   *
+   * @param task The task to run
+   * @param publish Run once the task finishes, whether or not it succeeded, unless the future was cancelled or timed out first. Null if the task
+   * has no results to publish.
+   */
+  private <T> CompletableFuture<T> submit(final Callable<T> task, final Runnable publish) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final AtomicBoolean settled = new AtomicBoolean(); // Set by whichever of the task, a cancel or the timeout finishes first
+    final Future<?> running = executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        T value = null;
+        Throwable error = null;
+        try {
+          value = task.call();
+        } catch (Throwable t) {
+          error = t;
+        }
+        if (!settled.compareAndSet(false, true)) {
+          return; // Cancelled or timed out, so the results are discarded
+        }
+        if (publish != null) {
+          publish.run();
+        }
+        if (error == null) {
+          result.complete(value);
+        } else {
+          result.completeExceptionally(error);
+        }
+      }
+    });
+    final ScheduledFuture<?> timer;
+    if (timeoutMillis > 0) {
+      final long timeout = timeoutMillis;
+      timer = getTimeoutScheduler().schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (settled.compareAndSet(false, true)) {
+            result.completeExceptionally(new TimeoutException("Update check timed out after " + timeout + "ms"));
+            running.cancel(true);
+          }
+        }
+      }, timeout, TimeUnit.MILLISECONDS);
+    } else {
+      timer = null;
+    }
+    result.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T value, Throwable error) {
+        if (timer != null) {
+          timer.cancel(false);
+        }
+        if (settled.compareAndSet(false, true)) { // Cancelled
+          running.cancel(true);
+        }
+      }
+    });
+    return result;
+  }
+}
@@ -1,7 +1,9 @@
 package com.github.sunnybat.commoncode.update;
 
+import com.github.sunnybat.commoncode.utilities.DataTracker;
 import java.io.*;
 import java.net.*;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * A class used for downloading program updates.
@@ -10,7 +12,20 @@ import java.net.*;
  */
 public class UpdateDownloader {
 
+  private static final long PROGRESS_POLL_MILLIS = 100;
+  private static final long CHECKPOINT_BYTES = 1024 * 1024;
+  private static final int CONNECT_TIMEOUT = 15000; // ms
+  private static final int READ_TIMEOUT = 30000; // ms
   private boolean useBetaVersion;
+  private int downloadConnections = 1;
+  private DataTracker dataTracker;
+  private PatchNotesDownloader patchNotes;
+  private String digestAlgorithm;
+  private String digest;
+  private final BandwidthLimiter limiter = new BandwidthLimiter();
+  private volatile UpdatePrompt activePrompt;
+  private volatile int lastPercent;
+  private final Object progressLock = new Object(); // Keeps pausing and progress reports from queueing status text out of order
   private final String UPDATE_LINK;
   private final String BETA_UPDATE_LINK;
 
@@ -49,6 +64,122 @@ public class UpdateDownloader {
     useBetaVersion = true;
   }
 
+  /**
+   * Sets the maximum number of concurrent connections to use when downloading an update. If more than one connection is allowed, the server
+   * advertises support for byte ranges and no update digest is known, the update is split into segments that are downloaded in parallel.
+   * Otherwise, the update is downloaded through a single connection. Defaults to 1.
+   *
+   * @param connections The maximum number of connections to use
+   * @throws IllegalArgumentException If connections is less than 1
+   */
+  public void setDownloadConnections(int connections) {
+    if (connections < 1) {
+      throw new IllegalArgumentException("connections cannot be less than 1");
+    }
+    downloadConnections = connections;
+  }
+
+  /**
+   * Sets the DataTracker to add downloaded update bytes to. Only bytes actually transferred are added, so a resumed download does not count the
+   * bytes downloaded by a previous attempt twice.
+   *
+   * @param dataTracker The DataTracker to use, or null for none
+   */
+  public void setDataTracker(DataTracker dataTracker) {
+    this.dataTracker = dataTracker;
+  }
+
+  /**
+   * Sets the Patch Notes to read update information from. If the Patch Notes list a delta patch for the current version along with a digest of
+   * the most recent version, {@link #updateProgram(UpdatePrompt, File)} first tries to rebuild the update from the installed file and the delta
+   * patch. If that fails for any reason, the full update is downloaded instead.
+   *
+   * @param patchNotes The downloaded Patch Notes, or null to always download the full update
+   * @see PatchNotesDownloader#getDeltaLink()
+   */
+  public void setPatchNotes(PatchNotesDownloader patchNotes) {
+    this.patchNotes = patchNotes;
+  }
+
+  /**
+   * Sets the digest the downloaded update must match before it is installed. This takes priority over any digest listed in the Patch Notes. The
+   * update is hashed as it downloads, so verifying it does not require reading the file again. Since segments finish out of order and could only
+   * be hashed by reading them back, an update with a known digest is always downloaded through a single connection.
+   *
+   * @param algorithm The MessageDigest algorithm, eg SHA-256, or MD5 for legacy feeds
+   * @param hexDigest The expected digest as a hex String
+   * @see #setPatchNotes(PatchNotesDownloader)
+   */
+  public void setExpectedDigest(String algorithm, String hexDigest) {
+    if ((algorithm == null) != (hexDigest == null)) {
+      throw new IllegalArgumentException("algorithm and hexDigest must both be set or both be null");
+    }
+    digestAlgorithm = algorithm;
+    digest = hexDigest;
+  }
+
+  /**
+   * Sets the maximum rate to download updates at. This can be changed while an update is downloading, and applies to all connections combined.
+   *
+   * @param bytesPerSecond The maximum download rate in bytes per second, or 0 for unlimited (the default)
+   * @throws IllegalArgumentException If bytesPerSecond is negative
+   */
+  public void setMaxBytesPerSecond(long bytesPerSecond) {
+    if (bytesPerSecond < 0) {
+      throw new IllegalArgumentException("bytesPerSecond cannot be negative");
+    }
+    limiter.setBytesPerSecond(bytesPerSecond);
+  }
+
+  /**
+   * Gets the maximum rate to download updates at.
+   *
+   * @return The maximum download rate in bytes per second, or 0 for unlimited
+   */
+  public long getMaxBytesPerSecond() {
+    return limiter.getBytesPerSecond();
+  }
+
+  /**
+   * Pauses the update currently downloading, or the next update downloaded if none is downloading. The download stays connected and continues
+   * where it stopped when {@link #resumeDownload()} is called.
+   */
+  public void pauseDownload() {
+    synchronized (progressLock) {
+      limiter.setPaused(true);
+      UpdatePrompt update = activePrompt;
+      if (update != null) {
+        update.setProgressPaused(true);
+        update.setStatusLabelText("Download paused at " + Math.max(0, lastPercent) + "%");
+      }
+    }
+    System.out.println("Update download paused");
+  }
+
+  /**
+   * Resumes a download paused by {@link #pauseDownload()}.
+   */
+  public void resumeDownload() {
+    synchronized (progressLock) {
+      limiter.setPaused(false);
+      UpdatePrompt update = activePrompt;
+      if (update != null) {
+        update.setProgressPaused(false);
+        update.updateProgress(Math.max(0, lastPercent));
+      }
+    }
+    System.out.println("Update download resumed");
+  }
+
+  /**
+   * Checks whether update downloads are paused.
+   *
+   * @return True if paused, false if not
+   */
+  public boolean isDownloadPaused() {
+    return limiter.isPaused();
+  }
+
   /**
    * Returns the size of the update file found online.
    *
@@ -66,7 +197,7 @@ public class UpdateDownloader {
     } else {
       updateURL = new URL(UPDATE_LINK);
     }
-    URLConnection conn = updateURL.openConnection();
+    URLConnection conn = openConnection(updateURL);
     long updateSize = conn.getContentLengthLong();
     if (updateSize == -1) {
       System.out.println("ERROR checking for updates: Update size listed as -1, program most likely unable to connect!");
@@ -88,13 +219,27 @@ public class UpdateDownloader {
 
   /**
    * Downloads the latest JAR file from the given link. Note that if this overwrites the program's current jar file, you will have to restart the
-   * program (in a new JVM instance) to load any new classes.
+   * program (in a new JVM instance) to load any new classes.<br>
+   * If a previous call was interrupted partway through the download, this continues from where that call stopped, as long as the update on the
+   * server has not changed since. Progress is recorded in a journal file next to the temp file.<br>
+   * If an expected digest is available, either from {@link #setExpectedDigest(String, String)} or from the Patch Notes, the update is downloaded
+   * through a single connection, hashed as it downloads, and only installed if it matches.
    *
    * @param update The UpdatePrompt to update as the update is downloaded, or null if none
    * @param writeFile The File to write the update to
    * @throws IOException If an error occurs while downloading or writing the file
    */
   public void updateProgram(UpdatePrompt update, File writeFile) throws IOException {
+    activePrompt = update;
+    lastPercent = -1;
+    try {
+      downloadAndInstall(update, writeFile);
+    } finally {
+      activePrompt = null;
+    }
+  }
+
+  private void downloadAndInstall(UpdatePrompt update, File writeFile) throws IOException {
     if (update != null) {
       update.setStatusLabelText("Preparing to update program...");
     }
@@ -105,65 +250,371 @@ public class UpdateDownloader {
     } else {
       updateURL = new URL(UPDATE_LINK);
     }
-    URLConnection conn = updateURL.openConnection();
-    InputStream inputStream = conn.getInputStream();
-    long remoteFileSize = conn.getContentLength();
-    System.out.println("Update Size(compressed): " + remoteFileSize + " Bytes");
     String path = writeFile.getAbsolutePath();
     File tempFile = new File(path.substring(0, path.lastIndexOf(".")) + ".temp");
+    File journalFile = DownloadJournal.journalFor(tempFile);
+    DownloadJournal journal = null;
     if (tempFile.exists()) {
-      tempFile.delete();
+      journal = DownloadJournal.load(journalFile);
+      if (journal == null || !journal.isFor(updateURL)) {
+        journal = null;
+        tempFile.delete();
+      }
     }
-    BufferedOutputStream buffOutputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
-    byte[] buffer = new byte[1024];
-    int bytesRead;
-    System.out.println("Downloading update...");
-    int total = 0;
-    while ((bytesRead = inputStream.read(buffer)) != -1) {
-      buffOutputStream.write(buffer, 0, bytesRead);
-      total += bytesRead;
-      int percent = (int) (total * 100 / remoteFileSize);
-      if (update != null) {
-        update.setStatusLabelText("Percent complete: " + percent);
-        update.updateProgress(percent);
+    if (journal == null) {
+      journalFile.delete();
+    }
+    if (journal != null || !applyDelta(update, writeFile, tempFile)) {
+      DownloadVerifier verifier = createVerifier();
+      System.out.println("Downloading update...");
+      if (verifier != null || !downloadSegmented(update, updateURL, tempFile, journal)) { // Segments could only be hashed by reading them back
+        downloadSingleStream(update, updateURL, tempFile, journal, verifier);
+      }
+      journalFile.delete();
+      if (verifier != null) {
+        try {
+          verifier.verify();
+        } catch (IOException e) {
+          tempFile.delete();
+          throw e;
+        }
       }
-      percentComplete(percent);
     }
-    buffOutputStream.flush();
-    buffOutputStream.close();
-    inputStream.close();
     if (update != null) {
       update.setStatusLabelText("Saving update to file...");
     }
     System.out.println("Saving update to file...");
-    // Requires custom client code to overwrite currently open JAR file :(
-//    if (writeFile.exists()) {
-//      if (!writeFile.delete()) {
-//        System.out.println("Error deleting file.");
-//      }
-//    }
-//    if (!tempFile.renameTo(writeFile)) {
-//      System.out.println("Error renaming file.");
-//    }
-    // Instead we have to force an overwrite
-    InputStream fIn = new BufferedInputStream(new FileInputStream(tempFile));
-    File outputFile = new File(path);
-    buffOutputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
-    buffer = new byte[1024];
-    while ((bytesRead = fIn.read(buffer)) != -1) {
-      buffOutputStream.write(buffer, 0, bytesRead);
-    }
-    buffOutputStream.flush();
-    buffOutputStream.close();
-    fIn.close();
-    tempFile.delete();
+    UpdateInstaller installer = new UpdateInstaller(tempFile, new File(path));
+    installer.install();
+    System.out.println("Saved update using " + installer.getMethod() + " (" + installer.getBytesInstalled() + " Bytes at "
+        + installer.getThroughputMBps() + "MB/s)");
+    installComplete(installer.getBytesInstalled(), installer.getInstallNanos());
     if (update != null) {
       update.setStatusLabelText("Finished updating!");
     }
   }
 
   /**
-   * Called periodically while downloading a program update. Override to perform your own updates.
+   * Creates a DownloadVerifier for the expected update digest.
+   *
+   * @return The DownloadVerifier, or null if no digest is known
+   * @throws IOException If the digest algorithm is unsupported or the digest is invalid
+   */
+  private DownloadVerifier createVerifier() throws IOException {
+    String algorithm = digestAlgorithm;
+    String hexDigest = digest;
+    if (algorithm == null && patchNotes != null) {
+      algorithm = patchNotes.getDigestAlgorithm();
+      hexDigest = patchNotes.getDigest();
+    }
+    if (algorithm == null || hexDigest == null) {
+      return null;
+    }
+    try {
+      return new DownloadVerifier(algorithm, hexDigest);
+    } catch (NoSuchAlgorithmException | IllegalArgumentException e) {
+      throw new IOException("Unable to verify update with " + algorithm + " digest", e);
+    }
+  }
+
+  /**
+   * Attempts to rebuild the update by applying a delta patch to the installed file. The result is verified against the digest listed in the Patch
+   * Notes before it is accepted.
+   *
+   * @param update The UpdatePrompt to update, or null if none
+   * @param installedFile The currently installed file to apply the patch to
+   * @param tempFile The File to write the rebuilt update to
+   * @return True if the update was rebuilt and verified, false if the full update should be downloaded instead
+   */
+  private boolean applyDelta(UpdatePrompt update, File installedFile, File tempFile) {
+    if (patchNotes == null || patchNotes.getDeltaLink() == null || !installedFile.isFile()) {
+      return false;
+    }
+    if (update != null) {
+      update.setStatusLabelText("Downloading delta update...");
+    }
+    System.out.println("Downloading delta update...");
+    try {
+      DownloadVerifier verifier = createVerifier();
+      if (verifier == null) {
+        return false; // A delta update must always be verified
+      }
+      DeltaPatch patch = new DeltaPatch(downloadFully(new URL(patchNotes.getDeltaLink())));
+      System.out.println("Applying delta update...");
+      try (OutputStream out = verifier.wrap(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        patch.apply(installedFile, out);
+      }
+      if (tempFile.length() != patch.getNewSize()) {
+        throw new IOException("Delta update produced " + tempFile.length() + " Bytes, expected " + patch.getNewSize());
+      }
+      verifier.verify();
+      reportProgress(update, 1, 1);
+      return true;
+    } catch (IOException e) {
+      System.out.println("Unable to apply delta update, downloading full update: " + e.getMessage());
+      tempFile.delete();
+      return false;
+    }
+  }
+
+  /**
+   * Downloads the given URL into memory. This should only be used for small files, such as delta patches.
+   *
+   * @param url The URL to download
+   * @return The downloaded bytes
+   * @throws IOException If an error occurs while downloading
+   */
+  private byte[] downloadFully(URL url) throws IOException {
+    URLConnection conn = openConnection(url);
+    long length = conn.getContentLengthLong();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(length > 0 ? (int) length : 16 * 1024);
+    try (InputStream in = conn.getInputStream()) {
+      byte[] buffer = new byte[16 * 1024];
+      int bytesRead;
+      while ((bytesRead = in.read(buffer)) != -1) {
+        limiter.acquire(bytesRead);
+        bytes.write(buffer, 0, bytesRead);
+      }
+    } finally {
+      trackData(bytes.size());
+    }
+    if (length > 0 && bytes.size() != length) {
+      throw new IOException("Download ended early at byte " + bytes.size() + " of " + length);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Attempts to download the update in parallel segments. This only happens if more than one connection is allowed and the server advertises
+   * support for byte ranges.
+   *
+   * @param update The UpdatePrompt to update, or null if none
+   * @param updateURL The URL to download from
+   * @param tempFile The File to download to
+   * @param journal The journal left by a previous attempt, or null if none
+   * @return True if the update was downloaded, false if it should be downloaded through a single stream instead
+   * @throws IOException If an error occurs while downloading the update
+   */
+  private boolean downloadSegmented(UpdatePrompt update, URL updateURL, File tempFile, DownloadJournal journal) throws IOException {
+    if (downloadConnections < 2) {
+      return false;
+    }
+    URLConnection probe = openConnection(updateURL);
+    if (!(probe instanceof HttpURLConnection)) {
+      return false;
+    }
+    HttpURLConnection headConn = (HttpURLConnection) probe;
+    long remoteFileSize;
+    long[][] segments;
+    try {
+      headConn.setRequestMethod("HEAD");
+      if (headConn.getResponseCode() != HttpURLConnection.HTTP_OK || !SegmentedDownload.supportsRanges(headConn)) {
+        System.out.println("Server does not support ranged downloads, using a single connection");
+        return false;
+      }
+      remoteFileSize = headConn.getContentLengthLong();
+      if (remoteFileSize < SegmentedDownload.MIN_SEGMENT_SIZE * 2) {
+        return false;
+      }
+      if (journal != null && journal.matches(updateURL, headConn)) {
+        System.out.println("Resuming update download at " + journal.getBytesWritten() + " Bytes");
+        segments = journal.getSegments();
+      } else {
+        if (journal != null) {
+          System.out.println("Update has changed since the last download attempt, starting over");
+          tempFile.delete();
+        }
+        segments = SegmentedDownload.split(remoteFileSize, downloadConnections);
+        journal = null;
+        if (DownloadJournal.isResumable(headConn)) {
+          journal = new DownloadJournal(DownloadJournal.journalFor(tempFile), updateURL.toString(), remoteFileSize,
+              headConn.getHeaderField("ETag"), headConn.getHeaderField("Last-Modified"), segments);
+        }
+      }
+    } finally {
+      headConn.disconnect();
+    }
+    System.out.println("Update Size(compressed): " + remoteFileSize + " Bytes");
+    SegmentedDownload download = new SegmentedDownload(updateURL, tempFile, remoteFileSize, segments, journal == null ? null : journal.getIfRange(),
+        limiter);
+    System.out.println("Downloading update over " + download.getConnections() + " connections");
+    download.start();
+    long lastCheckpoint = download.getBytesWritten();
+    try {
+      while (!download.awaitCompletion(PROGRESS_POLL_MILLIS)) {
+        long written = download.getBytesWritten();
+        if (journal != null && written - lastCheckpoint >= CHECKPOINT_BYTES) {
+          download.copyProgressTo(segments);
+          journal.save();
+          lastCheckpoint = written;
+        }
+        reportProgress(update, written, remoteFileSize);
+      }
+    } catch (InterruptedException e) {
+      download.cancel();
+      checkpoint(journal, download, segments);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while downloading update");
+    } catch (IOException e) {
+      download.cancel();
+      checkpoint(journal, download, segments);
+      throw e;
+    } finally {
+      trackData(download.getBytesDownloaded());
+    }
+    reportProgress(update, download.getBytesWritten(), remoteFileSize);
+    return true;
+  }
+
+  /**
+   * Saves the progress of a failed segmented download so the next attempt can resume it.
+   */
+  private void checkpoint(DownloadJournal journal, SegmentedDownload download, long[][] segments) {
+    if (journal != null) {
+      download.copyProgressTo(segments);
+      try {
+        journal.save();
+      } catch (IOException e) {
+        System.out.println("Unable to save download journal: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Downloads the update through a single connection. If the given journal has a single segment, this requests only the bytes that have not been
+   * written yet.
+   *
+   * @param update The UpdatePrompt to update, or null if none
+   * @param updateURL The URL to download from
+   * @param tempFile The File to download to
+   * @param journal The journal left by a previous attempt, or null if none
+   * @param verifier The DownloadVerifier to hash the update with, or null if none
+   * @throws IOException If an error occurs while downloading the update
+   */
+  private void downloadSingleStream(UpdatePrompt update, URL updateURL, File tempFile, DownloadJournal journal, DownloadVerifier verifier)
+      throws IOException {
+    URLConnection conn = openConnection(updateURL);
+    long resumeFrom = 0;
+    if (journal != null && journal.getSegments().length == 1 && journal.getIfRange() != null && conn instanceof HttpURLConnection) {
+      resumeFrom = journal.getSegments()[0][1];
+      conn.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+      conn.setRequestProperty("If-Range", journal.getIfRange());
+      if (((HttpURLConnection) conn).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+        System.out.println("Update has changed since the last download attempt, starting over");
+        resumeFrom = 0;
+      } else {
+        System.out.println("Resuming update download at " + resumeFrom + " Bytes");
+      }
+    }
+    long remoteFileSize = conn.getContentLengthLong();
+    if (remoteFileSize != -1) {
+      remoteFileSize += resumeFrom;
+    }
+    if (resumeFrom == 0) {
+      journal = null;
+      if (DownloadJournal.isResumable(conn)) {
+        journal = new DownloadJournal(DownloadJournal.journalFor(tempFile), updateURL.toString(), remoteFileSize,
+            conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), new long[][]{{0, 0, remoteFileSize - 1}});
+      }
+    }
+    System.out.println("Update Size(compressed): " + remoteFileSize + " Bytes");
+    try (RandomAccessFile truncate = new RandomAccessFile(tempFile, "rw")) {
+      truncate.setLength(resumeFrom); // Discard anything written after the last checkpoint
+    }
+    if (verifier != null) {
+      verifier.catchUp(tempFile, resumeFrom);
+    }
+    long total = resumeFrom;
+    try (InputStream inputStream = conn.getInputStream();
+        BufferedOutputStream buffOutputStream = new BufferedOutputStream(new FileOutputStream(tempFile, true))) {
+      byte[] buffer = new byte[1024];
+      int bytesRead;
+      long lastCheckpoint = total;
+      try {
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+          limiter.acquire(bytesRead);
+          buffOutputStream.write(buffer, 0, bytesRead);
+          if (verifier != null) {
+            verifier.update(buffer, 0, bytesRead);
+          }
+          total += bytesRead;
+          if (journal != null && total - lastCheckpoint >= CHECKPOINT_BYTES) {
+            buffOutputStream.flush();
+            journal.getSegments()[0][1] = total;
+            journal.save();
+            lastCheckpoint = total;
+          }
+          reportProgress(update, total, remoteFileSize);
+        }
+        if (remoteFileSize != -1 && total < remoteFileSize) {
+          throw new IOException("Update download ended early at byte " + total + " of " + remoteFileSize);
+        }
+      } catch (IOException e) {
+        if (journal != null) {
+          buffOutputStream.flush();
+          journal.getSegments()[0][1] = total;
+          journal.save();
+        }
+        throw e;
+      }
+    } finally {
+      trackData(total - resumeFrom);
+    }
+  }
+
+  /**
+   * Opens a connection to the given URL with connect and read timeouts set, so a stalled server fails the download instead of hanging it.
+   */
+  private static URLConnection openConnection(URL url) throws IOException {
+    URLConnection conn = url.openConnection();
+    conn.setConnectTimeout(CONNECT_TIMEOUT);
+    conn.setReadTimeout(READ_TIMEOUT);
+    return conn;
+  }
+
+  private void trackData(long bytes) {
+    if (dataTracker != null && bytes > 0) {
+      dataTracker.addDataUsed(DataTracker.Category.UPDATE, bytes);
+    }
+  }
+
+  /**
+   * Reports download progress. Progress is only reported when the percent changes, so the amount of UI updates does not depend on the size of the
+   * update or how many reads it takes to download it. Nothing is reported while paused, so the percent shown on resume continues from the last one
+   * shown.
+   */
+  private void reportProgress(UpdatePrompt update, long total, long remoteFileSize) {
+    if (remoteFileSize <= 0) {
+      return;
+    }
+    int percent = (int) (total * 100 / remoteFileSize);
+    if (percent == lastPercent) {
+      return;
+    }
+    synchronized (progressLock) {
+      if (limiter.isPaused()) {
+        return; // Keep the paused status visible
+      }
+      lastPercent = percent;
+      if (update != null) {
+        update.setStatusLabelText("Percent complete: " + percent);
+        update.updateProgress(percent);
+      }
+    }
+    percentComplete(percent);
+  }
+
+  /**
+   * Called once the downloaded update has been saved over the target file. Override to track install throughput.
+   *
+   * @param bytes The size of the installed update, in bytes
+   * @param nanos How long the install took, in nanoseconds
+   */
+  public void installComplete(long bytes, long nanos) {
+  }
+
+  /**
+   * Called whenever the percent complete changes while downloading a program update. Override to perform your own updates.
    *
    * @param percent The percent complete
    */
@@ -0,0 +1,158 @@
+package com.github.sunnybat.commoncode.update;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Moves a downloaded update from its temp file over the program's JAR file. The install is attempted in this order:
+ * <ol>
+ * <li>An atomic move of the temp file over the target. The target is never half-written, and a running JVM keeps reading the old file.</li>
+ * <li>If the file system cannot move atomically, the temp file is copied next to the target with {@link FileChannel#transferTo} and that copy is
+ * then moved over the target. This move is not atomic, so only the first attempt guarantees the target is replaced in one step, but the target is
+ * never overwritten with a partial copy of the download.</li>
+ * <li>If the target cannot be replaced at all, which happens on Windows while the JAR is open, the target is overwritten in place with
+ * {@link FileChannel#transferTo}. This is the only case where a partially-written JAR can exist if the program dies during the install.</li>
+ * </ol>
+ *
+ * @author SunnyBat
+ */
+class UpdateInstaller {
+
+  /**
+   * The install replaced the target with an atomic move.
+   */
+  static final String METHOD_ATOMIC_MOVE = "atomic move";
+  /**
+   * The install copied the update next to the target, then replaced the target.
+   */
+  static final String METHOD_COPY_AND_MOVE = "copy and move";
+  /**
+   * The install overwrote the target in place.
+   */
+  static final String METHOD_OVERWRITE = "in-place overwrite";
+
+  private final File tempFile;
+  private final File targetFile;
+  private String method;
+  private long bytesInstalled;
+  private long installNanos;
+
+  /**
+   * Creates a new UpdateInstaller.
+   *
+   * @param tempFile The downloaded update
+   * @param targetFile The File to install the update to
+   */
+  UpdateInstaller(File tempFile, File targetFile) {
+    this.tempFile = tempFile;
+    this.targetFile = targetFile;
+  }
+
+  /**
+   * Installs the update. The temp file is removed once the update has been installed.
+   *
+   * @throws IOException If the update could not be installed
+   */
+  void install() throws IOException {
+    Path source = tempFile.toPath();
+    Path target = targetFile.toPath();
+    bytesInstalled = Files.size(source);
+    long start = System.nanoTime();
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      method = METHOD_ATOMIC_MOVE;
+    } catch (AtomicMoveNotSupportedException e) {
+      Path staged = target.resolveSibling(target.getFileName() + ".staged");
+      try {
+        transfer(source, staged);
+        boolean replaced;
+        try {
+          Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+          replaced = true;
+        } catch (FileSystemException fse) {
+          replaced = false;
+        }
+        if (replaced) {
+          Files.delete(source);
+          method = METHOD_COPY_AND_MOVE;
+        } else {
+          overwrite(source, target);
+        }
+      } finally {
+        staged.toFile().delete(); // Only still there if the copy or the move failed
+      }
+    } catch (FileSystemException e) {
+      overwrite(source, target);
+    }
+    installNanos = System.nanoTime() - start;
+  }
+
+  private void overwrite(Path source, Path target) throws IOException {
+    System.out.println("Unable to replace " + target + ", overwriting it in place");
+    transfer(source, target);
+    Files.delete(source);
+    method = METHOD_OVERWRITE;
+  }
+
+  /**
+   * Copies source to target entirely through FileChannels, letting the OS move the bytes without copying them through the heap.
+   */
+  private static void transfer(Path source, Path target) throws IOException {
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+      out.force(true);
+    }
+  }
+
+  /**
+   * Gets how the update was installed. This is one of the METHOD constants in this class.
+   *
+   * @return The install method, or null if the update has not been installed
+   */
+  String getMethod() {
+    return method;
+  }
+
+  /**
+   * Gets the size of the installed update.
+   *
+   * @return The amount of bytes installed
+   */
+  long getBytesInstalled() {
+    return bytesInstalled;
+  }
+
+  /**
+   * Gets how long the install took.
+   *
+   * @return The install time, in nanoseconds
+   */
+  long getInstallNanos() {
+    return installNanos;
+  }
+
+  /**
+   * Gets the install throughput.
+   *
+   * @return The install throughput in megabytes per second, rounded to two decimal places
+   */
+  double getThroughputMBps() {
+    if (installNanos <= 0) {
+      return 0;
+    }
+    double mbps = (double) bytesInstalled / 1024 / 1024 / (installNanos / 1000000000D);
+    return (double) ((long) (mbps * 100)) / 100;
+  }
+}
@@ -1,6 +1,8 @@
 package com.github.sunnybat.commoncode.update;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Basic UpdatePrompt GUI.
@@ -12,6 +14,9 @@ public class UpdatePrompt extends javax.swing.JFrame {
   private final CountDownLatch countdown = new CountDownLatch(1);
   private boolean updateProgram;
   private final PatchNotes patchNotesWindow;
+  private final AtomicInteger pendingProgress = new AtomicInteger();
+  private final AtomicBoolean progressQueued = new AtomicBoolean();
+  private volatile boolean progressPaused;
 
   /**
    * Creates a new Update form. Note that the size and update level are set to unknown, and the Patch Notes button will be unavailable.
@@ -172,7 +177,9 @@ public class UpdatePrompt extends javax.swing.JFrame {
   }
 
   /**
-   * Updates the JProgressBar. Note that the user must select an option before calling this option.
+   * Updates the JProgressBar. Note that the user must select an option before calling this option.<br>
+   * Calls are coalesced: at most one progress update is queued on the EDT at a time, and it displays the most recent percent when it runs. This can
+   * be called as often as needed without flooding the EDT.
    *
    * @param percent The percent (0-100) to update
    * @throws IllegalStateException If the JProgressBar is not visible
@@ -181,15 +188,32 @@ public class UpdatePrompt extends javax.swing.JFrame {
     if (!JPBProgressBar.isVisible()) {
       throw new IllegalStateException("JProgressBar is not visible. Ensure update has been selected by user.");
     }
+    pendingProgress.set(percent);
+    if (!progressQueued.compareAndSet(false, true)) {
+      return; // The queued update will display this percent
+    }
     javax.swing.SwingUtilities.invokeLater(new Runnable() {
       @Override
       public void run() {
-        JPBProgressBar.setValue(percent);
-        setStatusLabelText("Progress: " + percent + "%");
+        progressQueued.set(false);
+        int latest = pendingProgress.get();
+        JPBProgressBar.setValue(latest);
+        if (!progressPaused) { // Checked when this runs, so a paused status set after this was queued is kept
+          JLStatus.setText("Progress: " + latest + "%");
+        }
       }
     });
   }
 
+  /**
+   * Stops queued and future progress updates from changing the status label, so a paused status stays visible. The progress bar is still updated.
+   *
+   * @param paused True to keep the status label, false to show progress in it again
+   */
+  void setProgressPaused(boolean paused) {
+    progressPaused = paused;
+  }
+
   @Override
   public final void dispose() {
     countdown.countDown();
@@ -0,0 +1,325 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes byte arrays to an OutputStream on a dedicated thread. Callers hand already-encoded bytes to a bounded lock-free ring buffer and return
+ * immediately; the writer thread drains the ring into large batches, so many small writes become a few large ones. Any number of threads may write at
+ * once. The ring follows Dmitry Vyukov's bounded MPMC queue: each slot has a sequence number that tells producers when it is free and the writer when
+ * it is full, so neither side ever takes a lock. Threads that have to wait, for room in a full ring or for flush(), park until the writer thread has
+ * written more.
+ *
+ * @author SunnyBat
+ */
+class AsyncFileWriter {
+
+  private static final int BATCH_SIZE = 64 * 1024;
+  private static final long IDLE_PARK_NANOS = 10000000; // 10ms
+  private static final long SEALED = Long.MIN_VALUE; // Set on enqueuePosition by close(), so no more entries can be claimed
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final OutputStream out;
+  private final boolean blockWhenFull;
+  private final int mask;
+  private final AtomicReferenceArray<byte[]> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong enqueuePosition = new AtomicLong(); // Has SEALED set once closed
+  private final AtomicLong writtenPosition = new AtomicLong(); // Every entry before this has been written to out
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>(); // Threads parked until writtenPosition moves
+  private final Thread writerThread;
+  private final Thread shutdownHook;
+  private volatile boolean writerParked;
+  private volatile boolean closed;
+  private volatile boolean writerDone;
+  private volatile IOException writeError;
+  private long dequeuePosition; // Only used by the writer thread
+
+  /**
+   * Creates a new AsyncFileWriter and starts its writer thread. The writer thread flushes and closes out when this AsyncFileWriter is closed, or
+   * when the JVM shuts down.
+   *
+   * @param out The OutputStream to write to
+   * @param capacity The maximum amount of pending writes. This is rounded up to a power of two.
+   * @param blockWhenFull True to make writers wait when the ring is full, false to drop their writes instead
+   * @throws IllegalArgumentException If capacity is less than 1
+   */
+  AsyncFileWriter(OutputStream out, int capacity, boolean blockWhenFull) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.out = out;
+    this.blockWhenFull = blockWhenFull;
+    mask = size - 1;
+    slots = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runWriter();
+      }
+    }, "Save Print Stream Writer " + THREAD_COUNT.incrementAndGet());
+    writerThread.setDaemon(true);
+    writerThread.start();
+    shutdownHook = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        close();
+      }
+    }, "Save Print Stream Shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Queues the given bytes to be written. The array must not be modified afterwards. If the ring is full, this either waits for room or drops the
+   * bytes, depending on how this AsyncFileWriter was created.
+   *
+   * @param bytes The bytes to write
+   * @return True if the bytes were queued, false if they were dropped or this AsyncFileWriter is closed
+   */
+  boolean write(byte[] bytes) {
+    while (true) {
+      long position = enqueuePosition.get();
+      if (position < 0) { // Sealed by close()
+        return false;
+      }
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (enqueuePosition.compareAndSet(position, position + 1)) {
+          slots.set(index, bytes);
+          sequences.set(index, position + 1); // Publishes the slot to the writer
+          updateMaxDepth(position + 1);
+          if (writerParked) {
+            LockSupport.unpark(writerThread);
+          }
+          return true;
+        }
+      } else if (difference < 0) { // Full
+        if (!blockWhenFull) {
+          droppedCount.incrementAndGet();
+          return false;
+        }
+        waiters.add(Thread.currentThread());
+        if (sequences.get(index) - position < 0 && enqueuePosition.get() == position && !writerDone) { // Checked after queueing so a wake-up is not missed
+          LockSupport.unpark(writerThread);
+          LockSupport.park(this);
+        }
+      }
+    }
+  }
+
+  private void updateMaxDepth(long enqueued) {
+    int depth = (int) (enqueued - writtenPosition.get());
+    int max = maxDepth.get();
+    while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+      max = maxDepth.get();
+    }
+  }
+
+  /**
+   * Waits until everything queued before this call has been written to the OutputStream, then flushes it.
+   *
+   * @throws IOException If the writer thread failed to write, or the wait was interrupted
+   */
+  void flush() throws IOException {
+    long target = enqueuePosition.get() & ~SEALED;
+    while (writtenPosition.get() < target && !writerDone) {
+      waiters.add(Thread.currentThread());
+      if (writtenPosition.get() < target && !writerDone) { // Checked after queueing so a wake-up is not missed
+        LockSupport.unpark(writerThread);
+        LockSupport.park(this);
+      }
+      if (Thread.interrupted()) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while flushing");
+      }
+    }
+    IOException error = writeError;
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Writes everything still queued, then closes the OutputStream. Writes made after this is called fail. A write that claimed its slot before this
+   * was called is still written, even if it had not finished queueing yet.
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    long position = enqueuePosition.get();
+    while (position >= 0 && !enqueuePosition.compareAndSet(position, position | SEALED)) {
+      position = enqueuePosition.get();
+    }
+    wakeWaiters(); // Blocked writers see the seal and fail
+    LockSupport.unpark(writerThread);
+    if (Thread.currentThread() != writerThread) {
+      try {
+        writerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // Already shutting down
+    }
+  }
+
+  /**
+   * Gets the amount of writes queued but not yet written.
+   *
+   * @return The queue depth
+   */
+  int getQueueDepth() {
+    return (int) Math.max(0, (enqueuePosition.get() & ~SEALED) - writtenPosition.get());
+  }
+
+  /**
+   * Gets the highest queue depth seen so far.
+   *
+   * @return The maximum queue depth
+   */
+  int getMaxQueueDepth() {
+    return maxDepth.get();
+  }
+
+  /**
+   * Gets the amount of writes dropped because the ring was full.
+   *
+   * @return The amount of dropped writes
+   */
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Gets the amount of bytes written to the OutputStream so far.
+   *
+   * @return The amount of bytes written
+   */
+  long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  private void runWriter() {
+    byte[] batch = new byte[BATCH_SIZE];
+    int batchLength = 0;
+    while (true) {
+      byte[] next = poll();
+      if (next == null) {
+        batchLength = writeBatch(batch, batchLength, dequeuePosition);
+        long position = enqueuePosition.get();
+        if (position < 0) { // Sealed, so every entry that will ever be queued is before position
+          if (dequeuePosition >= (position & ~SEALED)) {
+            break;
+          }
+          Thread.yield(); // A write claimed its slot before close() but has not published it yet
+          continue;
+        }
+        writerParked = true;
+        if (peek() == null && enqueuePosition.get() >= 0) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        writerParked = false;
+        continue;
+      }
+      if (batchLength + next.length > batch.length) {
+        batchLength = writeBatch(batch, batchLength, dequeuePosition - 1); // next has been taken but not written
+      }
+      if (next.length > batch.length) {
+        writeBytes(next, 0, next.length);
+        writtenPosition.set(dequeuePosition);
+        wakeWaiters();
+      } else {
+        System.arraycopy(next, 0, batch, batchLength, next.length);
+        batchLength += next.length;
+      }
+    }
+    try {
+      out.close();
+    } catch (IOException e) {
+      writeError = e;
+    }
+    writerDone = true;
+    wakeWaiters();
+  }
+
+  /**
+   * Writes and flushes the batch.
+   *
+   * @param writtenUpTo The position of the first entry not in the batch
+   * @return The new batch length, which is always 0
+   */
+  private int writeBatch(byte[] batch, int batchLength, long writtenUpTo) {
+    if (batchLength > 0) {
+      writeBytes(batch, 0, batchLength);
+      try {
+        out.flush();
+      } catch (IOException e) {
+        writeError = e;
+      }
+    }
+    writtenPosition.set(writtenUpTo);
+    wakeWaiters();
+    return 0;
+  }
+
+  /**
+   * Unparks every thread waiting for writtenPosition to move. Each one checks again and queues itself again if it still has to wait.
+   */
+  private void wakeWaiters() {
+    Thread waiter;
+    while ((waiter = waiters.poll()) != null) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) {
+    try {
+      out.write(bytes, offset, length);
+      bytesWritten.addAndGet(length);
+    } catch (IOException e) {
+      writeError = e;
+    }
+  }
+
+  private byte[] peek() {
+    int index = (int) dequeuePosition & mask;
+    return sequences.get(index) == dequeuePosition + 1 ? slots.get(index) : null;
+  }
+
+  private byte[] poll() {
+    int index = (int) dequeuePosition & mask;
+    if (sequences.get(index) != dequeuePosition + 1) {
+      return null;
+    }
+    byte[] bytes = slots.get(index);
+    slots.set(index, null);
+    sequences.set(index, dequeuePosition + mask + 1); // Frees the slot for the next lap
+    dequeuePosition++;
+    return bytes;
+  }
+}
@@ -0,0 +1,153 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKeyFactory;
+
+/**
+ * Keeps one idle MessageDigest, SecretKeyFactory and Cipher per algorithm per thread, so repeated hashing and encryption skip the provider lookup
+ * done by getInstance(). Engines are borrowed with an acquire method and must be given back with the matching release method, normally in a finally
+ * block. A borrowed engine is removed from the pool until it is released, so nested use on the same thread gets its own instance instead of sharing
+ * one.
+ * <p>
+ * MessageDigests are reset when they are released. Ciphers keep whatever state they were left in, so they must always be initialized before use.
+ *
+ * @author SunnyBat
+ */
+public final class CryptoPool {
+
+  private static final ThreadLocal<Map<String, Object>> IDLE = new ThreadLocal<Map<String, Object>>() {
+    @Override
+    protected Map<String, Object> initialValue() {
+      return new HashMap<>();
+    }
+  };
+  private static final LongAdder HITS = new LongAdder(); // Striped, so threads counting at once do not contend on one cache line
+  private static final LongAdder MISSES = new LongAdder();
+
+  private CryptoPool() {
+  }
+
+  /**
+   * Borrows a MessageDigest for the given algorithm. The MessageDigest is already reset.
+   *
+   * @param algorithm The algorithm, eg SHA-256 or MD5
+   * @return The MessageDigest
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   */
+  public static MessageDigest acquireDigest(String algorithm) throws NoSuchAlgorithmException {
+    MessageDigest mDigest = (MessageDigest) take("MessageDigest:" + algorithm);
+    return mDigest != null ? mDigest : MessageDigest.getInstance(algorithm);
+  }
+
+  /**
+   * Returns a borrowed MessageDigest to the pool. Does nothing if mDigest is null.
+   *
+   * @param mDigest The MessageDigest to return
+   */
+  public static void releaseDigest(MessageDigest mDigest) {
+    if (mDigest != null) {
+      mDigest.reset();
+      IDLE.get().put("MessageDigest:" + mDigest.getAlgorithm(), mDigest);
+    }
+  }
+
+  /**
+   * Borrows a SecretKeyFactory for the given algorithm.
+   *
+   * @param algorithm The algorithm, eg PBKDF2WithHmacSHA1
+   * @return The SecretKeyFactory
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   */
+  public static SecretKeyFactory acquireKeyFactory(String algorithm) throws NoSuchAlgorithmException {
+    SecretKeyFactory factory = (SecretKeyFactory) take("SecretKeyFactory:" + algorithm);
+    return factory != null ? factory : SecretKeyFactory.getInstance(algorithm);
+  }
+
+  /**
+   * Returns a borrowed SecretKeyFactory to the pool. Does nothing if factory is null.
+   *
+   * @param factory The SecretKeyFactory to return
+   */
+  public static void releaseKeyFactory(SecretKeyFactory factory) {
+    if (factory != null) {
+      IDLE.get().put("SecretKeyFactory:" + factory.getAlgorithm(), factory);
+    }
+  }
+
+  /**
+   * Borrows a Cipher for the given transformation. The Cipher must be initialized before it is used.
+   *
+   * @param transformation The transformation, eg AES/GCM/NoPadding
+   * @return The Cipher
+   * @throws NoSuchAlgorithmException If the transformation is not supported
+   * @throws NoSuchPaddingException If the transformation's padding is not supported
+   */
+  public static Cipher acquireCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+    Cipher cipher = (Cipher) take("Cipher:" + transformation);
+    return cipher != null ? cipher : Cipher.getInstance(transformation);
+  }
+
+  /**
+   * Returns a borrowed Cipher to the pool. Does nothing if cipher is null.
+   *
+   * @param cipher The Cipher to return
+   */
+  public static void releaseCipher(Cipher cipher) {
+    if (cipher != null) {
+      IDLE.get().put("Cipher:" + cipher.getAlgorithm(), cipher);
+    }
+  }
+
+  private static Object take(String key) {
+    Object engine = IDLE.get().remove(key);
+    if (engine != null) {
+      HITS.increment();
+    } else {
+      MISSES.increment();
+    }
+    return engine;
+  }
+
+  /**
+   * Gets the amount of times an engine was borrowed from the pool instead of being created.
+   *
+   * @return The amount of pool hits, across all threads
+   */
+  public static long getHitCount() {
+    return HITS.sum();
+  }
+
+  /**
+   * Gets the amount of times an engine had to be created because none was idle.
+   *
+   * @return The amount of pool misses, across all threads
+   */
+  public static long getMissCount() {
+    return MISSES.sum();
+  }
+
+  /**
+   * Gets the fraction of acquires that were served from the pool.
+   *
+   * @return The hit rate from 0 to 1, or 0 if nothing has been acquired
+   */
+  public static double getHitRate() {
+    long hits = HITS.sum();
+    long total = hits + MISSES.sum();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /**
+   * Resets the hit and miss counts to 0. Pooled engines are kept. Acquires made by other threads while resetting may or may not be counted.
+   */
+  public static void resetStats() {
+    HITS.reset();
+    MISSES.reset();
+  }
+}
@@ -1,19 +1,59 @@
 package com.github.sunnybat.commoncode.utilities;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * A utility to track the amount of data used.
+ * A utility to track the amount of data used. Data is counted per {@link Category}, and the rate it was used at over the last minute is kept in
+ * one-second buckets, so spikes can be seen as well as totals. Adding data never takes a lock, so any number of threads can add data at once.
  *
  * @author SunnyBat
  */
 public class DataTracker {
 
-  private long dataUsed;
-  private long startTime;
+  /**
+   * The longest window, in seconds, that {@link #getBytesPerSecond(int)} can average over.
+   */
+  public static final int MAX_RATE_WINDOW = 60;
+  private static final int BUCKET_COUNT = 64; // More than MAX_RATE_WINDOW, so the current second never overwrites a bucket still in the window
+
+  /**
+   * What data was used for.
+   */
+  public enum Category {
+
+    /**
+     * Downloading program updates.
+     */
+    UPDATE,
+    /**
+     * Downloading patch notes.
+     */
+    PATCH_NOTES,
+    /**
+     * Anything else. Data added without a Category is counted here.
+     */
+    OTHER
+  }
+
+  private final LongAdder[] categoryData;
+  private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+  private volatile long startTime;
+
+  /**
+   * Creates a new DataTracker.
+   */
+  public DataTracker() {
+    categoryData = new LongAdder[Category.values().length];
+    for (int i = 0; i < categoryData.length; i++) {
+      categoryData[i] = new LongAdder();
+    }
+  }
 
   /**
    * Sets the start time for this DataTracker to the current system's time in milliseconds.
    */
-  public synchronized void setStartTime() {
+  public void setStartTime() {
     this.startTime = System.currentTimeMillis();
   }
 
@@ -22,7 +62,7 @@ public class DataTracker {
    *
    * @param startTime The start time to use
    */
-  public synchronized void setStartTime(long startTime) {
+  public void setStartTime(long startTime) {
     this.startTime = startTime;
   }
 
@@ -31,17 +71,50 @@ public class DataTracker {
    *
    * @return The start time
    */
-  public synchronized long getStartTime() {
+  public long getStartTime() {
     return startTime;
   }
 
   /**
-   * Adds an amount of data (in bytes) used by the program. This should be called whenever a network connection is made.
+   * Adds an amount of data (in bytes) used by the program. This should be called whenever a network connection is made. The data is counted as
+   * {@link Category#OTHER}.
    *
    * @param data The amount of data (in bytes) to add to the total data used
    */
-  public synchronized void addDataUsed(long data) {
-    dataUsed += data;
+  public void addDataUsed(long data) {
+    addDataUsed(Category.OTHER, data);
+  }
+
+  /**
+   * Adds an amount of data (in bytes) used by the program for the given Category.
+   *
+   * @param category What the data was used for
+   * @param data The amount of data (in bytes) to add to the total data used
+   * @throws IllegalArgumentException If category is null
+   */
+  public void addDataUsed(Category category, long data) {
+    if (category == null) {
+      throw new IllegalArgumentException("category cannot be null");
+    }
+    categoryData[category.ordinal()].add(data);
+    getBucket(System.currentTimeMillis() / 1000).bytes.add(data);
+  }
+
+  /**
+   * Gets the bucket for the given second, replacing the stale bucket in its slot if needed. If two threads replace the same slot at once, one loses
+   * the race and uses the winner's bucket, so no lock is needed.
+   */
+  private Bucket getBucket(long second) {
+    int index = (int) (second % BUCKET_COUNT);
+    Bucket bucket = buckets.get(index);
+    while (bucket == null || bucket.second < second) {
+      Bucket newBucket = new Bucket(second);
+      if (buckets.compareAndSet(index, bucket, newBucket)) {
+        return newBucket;
+      }
+      bucket = buckets.get(index);
+    }
+    return bucket; // May be from a later second if this thread stalled; the data is still counted in a window
   }
 
   /**
@@ -49,8 +122,26 @@ public class DataTracker {
    *
    * @return The amount of data (in bytes) used by the program
    */
-  public synchronized long getDataUsed() {
-    return dataUsed;
+  public long getDataUsed() {
+    long total = 0;
+    for (LongAdder data : categoryData) {
+      total += data.sum();
+    }
+    return total;
+  }
+
+  /**
+   * Gets the amount of data (in bytes) used by the program for the given Category.
+   *
+   * @param category The Category to get
+   * @return The amount of data (in bytes) used for category
+   * @throws IllegalArgumentException If category is null
+   */
+  public long getDataUsed(Category category) {
+    if (category == null) {
+      throw new IllegalArgumentException("category cannot be null");
+    }
+    return categoryData[category.ordinal()].sum();
   }
 
   /**
@@ -58,7 +149,173 @@ public class DataTracker {
    *
    * @return The amount of data in megabytes used by the program
    */
-  public synchronized double getDataUsedMB() {
-    return (double) ((int) ((double) getDataUsed() / 1024 / 1024 * 100)) / 100; // *100 to make the double have two extra numbers, round with typecasting to integer, then divide that by 100 and typecast to double to get a double with two decimal places
+  public double getDataUsedMB() {
+    return toMB(getDataUsed());
+  }
+
+  private static double toMB(long bytes) {
+    return Math.floor(bytes / (1024.0 * 1024.0) * 100) / 100; // Truncates to two decimal places
+  }
+
+  /**
+   * Gets the average rate data was used at over the last given amount of seconds. Only whole seconds are counted, so the second in progress is not
+   * included.
+   *
+   * @param seconds The amount of seconds to average over, from 1 to {@link #MAX_RATE_WINDOW}
+   * @return The average amount of bytes used per second
+   * @throws IllegalArgumentException If seconds is not between 1 and {@link #MAX_RATE_WINDOW}
+   */
+  public double getBytesPerSecond(int seconds) {
+    return getBytesPerSecond(seconds, System.currentTimeMillis() / 1000);
+  }
+
+  private double getBytesPerSecond(int seconds, long currentSecond) {
+    if (seconds < 1 || seconds > MAX_RATE_WINDOW) {
+      throw new IllegalArgumentException("seconds must be between 1 and " + MAX_RATE_WINDOW);
+    }
+    long total = 0;
+    for (long second = currentSecond - seconds; second < currentSecond; second++) {
+      Bucket bucket = buckets.get((int) (second % BUCKET_COUNT));
+      if (bucket != null && bucket.second == second) {
+        total += bucket.bytes.sum();
+      }
+    }
+    return (double) total / seconds;
+  }
+
+  /**
+   * Takes a Snapshot of every counter in this DataTracker. This does not block threads adding data, so data added while the Snapshot is being taken
+   * may be included in some counters and not others. The Snapshot is only consistent with itself.
+   *
+   * @return The Snapshot
+   */
+  public Snapshot getSnapshot() {
+    long timestamp = System.currentTimeMillis();
+    long[] data = new long[categoryData.length];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = categoryData[i].sum();
+    }
+    long currentSecond = timestamp / 1000;
+    return new Snapshot(timestamp, startTime, data, getBytesPerSecond(1, currentSecond), getBytesPerSecond(10, currentSecond),
+        getBytesPerSecond(60, currentSecond));
+  }
+
+  /**
+   * The data used for a single second.
+   */
+  private static class Bucket {
+
+    private final long second;
+    private final LongAdder bytes = new LongAdder();
+
+    Bucket(long second) {
+      this.second = second;
+    }
+  }
+
+  /**
+   * An immutable copy of a DataTracker's counters. The counters are read one after another while data may still be added, so this is not a
+   * point-in-time copy. It is consistent with itself: the total is the sum of the categories, and every rate is measured up to the same second.
+   */
+  public static class Snapshot {
+
+    private final long timestamp;
+    private final long startTime;
+    private final long[] categoryData;
+    private final long dataUsed;
+    private final double bytesPerSecond1s;
+    private final double bytesPerSecond10s;
+    private final double bytesPerSecond60s;
+
+    private Snapshot(long timestamp, long startTime, long[] categoryData, double bytesPerSecond1s, double bytesPerSecond10s, double bytesPerSecond60s) {
+      this.timestamp = timestamp;
+      this.startTime = startTime;
+      this.categoryData = categoryData;
+      long total = 0;
+      for (long data : categoryData) {
+        total += data;
+      }
+      this.dataUsed = total;
+      this.bytesPerSecond1s = bytesPerSecond1s;
+      this.bytesPerSecond10s = bytesPerSecond10s;
+      this.bytesPerSecond60s = bytesPerSecond60s;
+    }
+
+    /**
+     * Gets when this Snapshot was taken.
+     *
+     * @return The time this Snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * Gets the DataTracker's start time when this Snapshot was taken.
+     *
+     * @return The start time, or 0 if not set
+     */
+    public long getStartTime() {
+      return startTime;
+    }
+
+    /**
+     * Gets the total amount of data (in bytes) used.
+     *
+     * @return The amount of data (in bytes) used
+     */
+    public long getDataUsed() {
+      return dataUsed;
+    }
+
+    /**
+     * Gets the amount of data (in bytes) used for the given Category.
+     *
+     * @param category The Category to get
+     * @return The amount of data (in bytes) used for category
+     * @throws IllegalArgumentException If category is null
+     */
+    public long getDataUsed(Category category) {
+      if (category == null) {
+        throw new IllegalArgumentException("category cannot be null");
+      }
+      return categoryData[category.ordinal()];
+    }
+
+    /**
+     * Gets the total amount of data in megabytes used. Note that the double only extends out two decimal places.
+     *
+     * @return The amount of data in megabytes used
+     */
+    public double getDataUsedMB() {
+      return toMB(dataUsed);
+    }
+
+    /**
+     * Gets the average bytes used per second over the last second.
+     *
+     * @return The bytes per second
+     */
+    public double getBytesPerSecond1s() {
+      return bytesPerSecond1s;
+    }
+
+    /**
+     * Gets the average bytes used per second over the last 10 seconds.
+     *
+     * @return The bytes per second
+     */
+    public double getBytesPerSecond10s() {
+      return bytesPerSecond10s;
+    }
+
+    /**
+     * Gets the average bytes used per second over the last 60 seconds.
+     *
+     * @return The bytes per second
+     */
+    public double getBytesPerSecond60s() {
+      return bytesPerSecond60s;
+    }
   }
 }
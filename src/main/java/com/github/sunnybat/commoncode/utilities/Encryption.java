@@ -1,14 +1,27 @@
 package com.github.sunnybat.commoncode.utilities;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.PBEParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Credit goes to Johannes Brodwall on StackOverflow for providing this class. It has been modified quite a bit, but the basic encryption/decryption
@@ -49,13 +62,16 @@ public class Encryption {
     }
 
   private static Encryption defaultEncryption;
-  private static final byte[] DEFAULT_SALT = {
-    (byte) 0xde, (byte) 0x33, (byte) 0x10, (byte) 0x12,
-    (byte) 0xde, (byte) 0x33, (byte) 0x10, (byte) 0x12,};
 
-  public static Encryption getDefaultEncryption() {
+  /**
+   * Gets the Encryption instance that uses the same salt as the static methods. Its AES-GCM values can also be read by
+   * {@link #decrypt(java.lang.String)}.
+   *
+   * @return The default Encryption instance
+   */
+  public static synchronized Encryption getDefaultEncryption() {
     if (defaultEncryption == null) {
-      defaultEncryption = new Encryption(DEFAULT_SALT);
+      defaultEncryption = new Encryption(SALT);
     }
     return defaultEncryption;
   }
@@ -63,7 +79,94 @@ public class Encryption {
   private static final byte[] SALT = {
     (byte) 0xde, (byte) 0x33, (byte) 0x10, (byte) 0x12,
     (byte) 0xde, (byte) 0x33, (byte) 0x10, (byte) 0x12,};
+  private static final String PBE_ALGORITHM = "PBEWithMD5AndDES";
+  private static final int PBE_ITERATIONS = 20;
+  private static final String AES_GCM_PREFIX = "2:"; // Not part of the Base64 alphabet, so it can never start a DES value
+  private static final String AES_GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final String AES_KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int AES_KEY_ITERATIONS = 10000;
+  private static final int AES_KEY_BITS = 128;
+  private static final int GCM_IV_BYTES = 12;
+  private static final int GCM_TAG_BITS = 128;
+  private static final SecureRandom RANDOM = new SecureRandom();
   private static final Base64Util utils = new Base64Util();
+  private static final Map<String, DerivedKey> KEY_CACHE = new ConcurrentHashMap<>();
+  private static final ThreadLocal<Map<String, Cipher>> PBE_CIPHERS = new ThreadLocal<Map<String, Cipher>>() {
+    @Override
+    protected Map<String, Cipher> initialValue() {
+      return new HashMap<>();
+    }
+  };
+
+  /**
+   * The PBEWithMD5AndDES key and parameters for a password and salt. SecretKeyFactory.generateSecret() only wraps the password; the MD5 rounds
+   * that derive the DES key and IV run in Cipher.init(), which is why initialized ciphers are kept by {@link #acquirePbeCipher}.
+   */
+  private static class DerivedKey {
+
+    private final SecretKey key;
+    private final PBEParameterSpec params;
+
+    DerivedKey(SecretKey key, PBEParameterSpec params) {
+      this.key = key;
+      this.params = params;
+    }
+  }
+
+  /**
+   * Gets the key for the given password and salt, generating and caching it if this is the first time it is used.
+   */
+  private static DerivedKey getKey(String password, byte[] salt) throws GeneralSecurityException {
+    String cacheKey = password + ":" + HexCodec.encode(salt);
+    DerivedKey derived = KEY_CACHE.get(cacheKey);
+    if (derived == null) {
+      SecretKeyFactory keyFactory = CryptoPool.acquireKeyFactory(PBE_ALGORITHM);
+      try {
+        derived = new DerivedKey(keyFactory.generateSecret(new PBEKeySpec(password.toCharArray())), new PBEParameterSpec(salt, PBE_ITERATIONS));
+      } finally {
+        CryptoPool.releaseKeyFactory(keyFactory);
+      }
+      KEY_CACHE.put(cacheKey, derived);
+    }
+    return derived;
+  }
+
+  /**
+   * Borrows a PBEWithMD5AndDES cipher that is already initialized for the given mode, password and salt. Each thread keeps one idle cipher per
+   * combination, since doFinal() leaves a cipher ready for the next value, so the key is only derived the first time a thread uses it. The cipher
+   * must be given back with {@link #releasePbeCipher}.
+   */
+  private static Cipher acquirePbeCipher(int mode, String password, byte[] salt) throws GeneralSecurityException {
+    Cipher pbeCipher = PBE_CIPHERS.get().remove(pbeCipherKey(mode, password, salt));
+    if (pbeCipher == null) {
+      DerivedKey derived = getKey(password, salt);
+      pbeCipher = Cipher.getInstance(PBE_ALGORITHM);
+      pbeCipher.init(mode, derived.key, derived.params);
+    }
+    return pbeCipher;
+  }
+
+  /**
+   * Returns a cipher borrowed with {@link #acquirePbeCipher}. It must still be initialized for the same mode, password and salt. Does nothing if
+   * pbeCipher is null.
+   */
+  private static void releasePbeCipher(Cipher pbeCipher, int mode, String password, byte[] salt) {
+    if (pbeCipher != null) {
+      PBE_CIPHERS.get().put(pbeCipherKey(mode, password, salt), pbeCipher);
+    }
+  }
+
+  /**
+   * Initializes the given cipher again after a failed doFinal(), which may leave it in an unusable state.
+   */
+  private static void resetPbeCipher(Cipher pbeCipher, int mode, String password, byte[] salt) throws GeneralSecurityException {
+    DerivedKey derived = getKey(password, salt);
+    pbeCipher.init(mode, derived.key, derived.params);
+  }
+
+  private static String pbeCipherKey(int mode, String password, byte[] salt) {
+    return mode + ":" + password + ":" + HexCodec.encode(salt);
+  }
 
   /**
    * Encrypts the given String. Should be used in conjunction with {@link #decrypt(java.lang.String)}.
@@ -75,15 +178,38 @@ public class Encryption {
     if (property == null) {
       return null;
     }
+    return encryptAll(Collections.singletonList(property)).get(0);
+  }
+
+  /**
+   * Encrypts every given String with the same cipher. This borrows the cipher once instead of once per String like
+   * {@link #encrypt(java.lang.String)}. Should be used in conjunction with {@link #decryptAll(java.util.List)}.
+   *
+   * @param properties The Strings to encrypt
+   * @return The encrypted Strings, in the same order. Each is null if the matching String was null or could not be encrypted.
+   */
+  public static List<String> encryptAll(List<String> properties) {
+    String[] encrypted = new String[properties.size()];
+    String password = System.getProperty("os.name");
+    Cipher pbeCipher = null;
     try {
-      SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-      SecretKey key = keyFactory.generateSecret(new PBEKeySpec(System.getProperty("os.name").toCharArray()));
-      Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-      pbeCipher.init(Cipher.ENCRYPT_MODE, key, new PBEParameterSpec(SALT, 20));
-      return base64Encode(pbeCipher.doFinal(property.getBytes("UTF-8")));
-    } catch (IOException | GeneralSecurityException badPaddingException) {
-      return null;
+      pbeCipher = acquirePbeCipher(Cipher.ENCRYPT_MODE, password, SALT);
+      for (int i = 0; i < encrypted.length; i++) {
+        String property = properties.get(i);
+        if (property != null) {
+          try {
+            encrypted[i] = base64Encode(pbeCipher.doFinal(property.getBytes("UTF-8"))); // doFinal() leaves pbeCipher ready for the next value
+          } catch (IOException | GeneralSecurityException badPaddingException) {
+            resetPbeCipher(pbeCipher, Cipher.ENCRYPT_MODE, password, SALT);
+          }
+        }
+      }
+    } catch (GeneralSecurityException e) {
+      pbeCipher = null; // Unable to set up the cipher, so every remaining value is left null
+    } finally {
+      releasePbeCipher(pbeCipher, Cipher.ENCRYPT_MODE, password, SALT);
     }
+    return Arrays.asList(encrypted);
   }
 
   private static String base64Encode(byte[] bytes) {
@@ -91,7 +217,8 @@ public class Encryption {
   }
 
   /**
-   * Decrypts the given String. Should be used in conjunction with {@link #encrypt(java.lang.String)}.
+   * Decrypts the given String. Should be used in conjunction with {@link #encrypt(java.lang.String)}. This also reads values written by the
+   * instance methods of {@link #getDefaultEncryption()}.
    *
    * @param property The encrypted String to decrypt
    * @return The decrypted String, or null if unable to decrypt it
@@ -100,23 +227,267 @@ public class Encryption {
     if (property == null) {
       return null;
     }
+    return decryptAll(Collections.singletonList(property)).get(0);
+  }
+
+  /**
+   * Decrypts every given String with the same cipher. This borrows the cipher once instead of once per String like
+   * {@link #decrypt(java.lang.String)}. Should be used in conjunction with {@link #encryptAll(java.util.List)}.
+   *
+   * @param properties The encrypted Strings to decrypt
+   * @return The decrypted Strings, in the same order. Each is null if the matching String was null or could not be decrypted.
+   */
+  public static List<String> decryptAll(List<String> properties) {
+    return decryptAll(getDefaultEncryption(), properties);
+  }
+
+  /**
+   * Decrypts every given String with the given Encryption's password. DES values share the same cipher and always use {@link #SALT}, since only
+   * the static methods write them; AES-GCM values are decrypted one at a time with the given Encryption's key, since each has its own IV.
+   */
+  private static List<String> decryptAll(Encryption encryption, List<String> properties) {
+    String[] decrypted = new String[properties.size()];
+    Cipher pbeCipher = null;
     try {
-      SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-      SecretKey key = keyFactory.generateSecret(new PBEKeySpec(System.getProperty("os.name").toCharArray()));
-      Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-      pbeCipher.init(Cipher.DECRYPT_MODE, key, new PBEParameterSpec(SALT, 20));
-      return new String(pbeCipher.doFinal(base64Decode(property)), "UTF-8");
-    } catch (IOException | GeneralSecurityException badPaddingException) {
-      return null;
+      for (int i = 0; i < decrypted.length; i++) {
+        String property = properties.get(i);
+        if (property == null) {
+          continue;
+        } else if (property.startsWith(AES_GCM_PREFIX)) {
+          decrypted[i] = encryption.decryptAesGcm(property);
+          continue;
+        } else if (pbeCipher == null) {
+          pbeCipher = acquirePbeCipher(Cipher.DECRYPT_MODE, encryption.password, SALT);
+        }
+        try {
+          decrypted[i] = new String(pbeCipher.doFinal(base64Decode(property)), "UTF-8");
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException badPaddingException) {
+          resetPbeCipher(pbeCipher, Cipher.DECRYPT_MODE, encryption.password, SALT);
+        }
+      }
+    } catch (GeneralSecurityException e) {
+      pbeCipher = null; // Unable to set up the cipher, so every remaining value is left null
+    } finally {
+      releasePbeCipher(pbeCipher, Cipher.DECRYPT_MODE, encryption.password, SALT);
     }
+    return Arrays.asList(decrypted);
   }
 
   private static byte[] base64Decode(String property) throws IOException {
     return utils.base64Decode(property);
   }
 
+  private final byte[] salt;
+  private final String password;
+  private volatile SecretKeySpec aesKey;
+
+  /**
+   * Creates a new Encryption instance that derives its AES key from the given salt. AES-GCM values encrypted by one instance can only be decrypted
+   * by an instance with the same salt. DES values written by {@link #encrypt(java.lang.String)} can be read by every instance, whatever its salt.
+   *
+   * @param salt The salt to derive the AES key from
+   * @throws IllegalArgumentException if salt is null or empty
+   */
   public Encryption(byte[] salt) {
+    if (salt == null || salt.length == 0) {
+      throw new IllegalArgumentException("salt cannot be null or empty");
+    }
+    this.salt = salt.clone();
+    this.password = System.getProperty("os.name");
+  }
 
+  /**
+   * Encrypts the given String with AES-GCM. The result is versioned, so it can be told apart from values written by
+   * {@link #encrypt(java.lang.String)}.
+   *
+   * @param property The String to encrypt
+   * @return The encrypted String, or null if property is null or unable to encrypt it
+   */
+  public String encryptProperty(String property) {
+    if (property == null) {
+      return null;
+    }
+    Cipher gcmCipher = null;
+    try {
+      byte[] iv = new byte[GCM_IV_BYTES];
+      RANDOM.nextBytes(iv);
+      gcmCipher = CryptoPool.acquireCipher(AES_GCM_TRANSFORMATION);
+      gcmCipher.init(Cipher.ENCRYPT_MODE, getAesKey(), new GCMParameterSpec(GCM_TAG_BITS, iv));
+      byte[] plain = property.getBytes("UTF-8");
+      byte[] output = new byte[GCM_IV_BYTES + gcmCipher.getOutputSize(plain.length)];
+      System.arraycopy(iv, 0, output, 0, GCM_IV_BYTES);
+      gcmCipher.doFinal(plain, 0, plain.length, output, GCM_IV_BYTES);
+      return AES_GCM_PREFIX + base64Encode(output);
+    } catch (IOException | GeneralSecurityException e) {
+      return null;
+    } finally {
+      CryptoPool.releaseCipher(gcmCipher);
+    }
+  }
+
+  /**
+   * Decrypts the given String. This reads both AES-GCM values written by {@link #encryptProperty(java.lang.String)} and DES values written by
+   * {@link #encrypt(java.lang.String)}. Use {@link #needsMigration(java.lang.String)} to find DES values that should be stored again.
+   *
+   * @param property The encrypted String to decrypt
+   * @return The decrypted String, or null if property is null or unable to decrypt it
+   */
+  public String decryptProperty(String property) {
+    if (property == null) {
+      return null;
+    }
+    return decryptAll(this, Collections.singletonList(property)).get(0);
+  }
+
+  /**
+   * Checks whether the given encrypted String uses the old DES format and should be migrated to AES-GCM.
+   *
+   * @param property The encrypted String to check
+   * @return True if property is a DES value, false if it is null or already AES-GCM
+   */
+  public boolean needsMigration(String property) {
+    return property != null && !property.startsWith(AES_GCM_PREFIX);
+  }
+
+  /**
+   * Re-encrypts the given String with AES-GCM if it still uses the old DES format. Callers should store the result in place of the original, so
+   * values are migrated as they are read instead of all at once.
+   *
+   * @param property The encrypted String to migrate
+   * @return The AES-GCM value, property itself if it does not need migrating, or null if it could not be decrypted
+   */
+  public String migrate(String property) {
+    if (!needsMigration(property)) {
+      return property;
+    }
+    return encryptProperty(decryptProperty(property));
+  }
+
+  /**
+   * Creates an OutputStream that encrypts everything written to it with AES-GCM, in segments, so memory use stays constant no matter how much is
+   * written. The stream must be closed to write the final segment; closing it also closes out.
+   *
+   * @param out The OutputStream to write the encrypted data to
+   * @return The encrypting OutputStream
+   * @throws IOException If an IOException occurs while writing the header, or AES-GCM is unavailable
+   * @see #decryptingStream(java.io.InputStream)
+   */
+  public OutputStream encryptingStream(OutputStream out) throws IOException {
+    return encryptingStream(out, false);
+  }
+
+  /**
+   * Creates an OutputStream that encrypts everything written to it with AES-GCM, in segments, so memory use stays constant no matter how much is
+   * written. The stream must be closed to write the final segment; closing it also closes out.
+   *
+   * @param out The OutputStream to write the encrypted data to
+   * @param base64 True to Base64-encode the encrypted data as it is written, false to write raw bytes
+   * @return The encrypting OutputStream
+   * @throws IOException If an IOException occurs while writing the header, or AES-GCM is unavailable
+   * @see #decryptingStream(java.io.InputStream, boolean)
+   */
+  public OutputStream encryptingStream(OutputStream out, boolean base64) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out cannot be null");
+    }
+    return StreamingCipher.encryptingStream(getStreamKey(), base64 ? Base64.getEncoder().wrap(out) : out);
+  }
+
+  /**
+   * Creates an InputStream that decrypts data written by {@link #encryptingStream(java.io.OutputStream)}. Reading throws an IOException if the data
+   * was modified or truncated, or was encrypted by an instance with a different salt.
+   *
+   * @param in The InputStream to read the encrypted data from
+   * @return The decrypting InputStream
+   * @throws IOException If AES-GCM is unavailable
+   */
+  public InputStream decryptingStream(InputStream in) throws IOException {
+    return decryptingStream(in, false);
+  }
+
+  /**
+   * Creates an InputStream that decrypts data written by {@link #encryptingStream(java.io.OutputStream, boolean)}. Reading throws an IOException if
+   * the data was modified or truncated, or was encrypted by an instance with a different salt.
+   *
+   * @param in The InputStream to read the encrypted data from
+   * @param base64 True if the encrypted data is Base64-encoded, false if it is raw bytes
+   * @return The decrypting InputStream
+   * @throws IOException If AES-GCM is unavailable
+   */
+  public InputStream decryptingStream(InputStream in, boolean base64) throws IOException {
+    if (in == null) {
+      throw new IllegalArgumentException("in cannot be null");
+    }
+    return StreamingCipher.decryptingStream(getStreamKey(), base64 ? Base64.getDecoder().wrap(in) : in);
+  }
+
+  /**
+   * Encrypts everything read from the given channel with AES-GCM and writes it to out, using the same format as
+   * {@link #encryptingStream(java.io.OutputStream)}. Neither channel is closed.
+   *
+   * @param in The channel to read from until it ends
+   * @param out The channel to write the encrypted data to
+   * @return The amount of bytes encrypted
+   * @throws IOException If an IOException occurs while reading or writing, or AES-GCM is unavailable
+   */
+  public long encrypt(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    return StreamingCipher.encrypt(getStreamKey(), in, out);
+  }
+
+  /**
+   * Decrypts the encrypted data read from the given channel and writes it to out. Neither channel is closed. If the data was modified or truncated,
+   * an IOException is thrown after writing the data from every segment before the bad one.
+   *
+   * @param in The channel to read the encrypted data from
+   * @param out The channel to write the decrypted data to
+   * @return The amount of bytes decrypted
+   * @throws IOException If an IOException occurs while reading or writing, the data fails authentication, or AES-GCM is unavailable
+   */
+  public long decrypt(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    return StreamingCipher.decrypt(getStreamKey(), in, out);
+  }
+
+  private SecretKeySpec getStreamKey() throws IOException {
+    try {
+      return getAesKey();
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Unable to derive encryption key", e);
+    }
+  }
+
+  private String decryptAesGcm(String property) {
+    Cipher gcmCipher = null;
+    try {
+      byte[] input = base64Decode(property.substring(AES_GCM_PREFIX.length()));
+      if (input.length < GCM_IV_BYTES) {
+        return null;
+      }
+      gcmCipher = CryptoPool.acquireCipher(AES_GCM_TRANSFORMATION);
+      gcmCipher.init(Cipher.DECRYPT_MODE, getAesKey(), new GCMParameterSpec(GCM_TAG_BITS, input, 0, GCM_IV_BYTES));
+      return new String(gcmCipher.doFinal(input, GCM_IV_BYTES, input.length - GCM_IV_BYTES), "UTF-8");
+    } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+      return null;
+    } finally {
+      CryptoPool.releaseCipher(gcmCipher);
+    }
+  }
+
+  /**
+   * Gets the AES key for this instance, deriving it with PBKDF2 the first time it is needed.
+   */
+  private SecretKeySpec getAesKey() throws GeneralSecurityException {
+    SecretKeySpec key = aesKey;
+    if (key == null) {
+      SecretKeyFactory keyFactory = CryptoPool.acquireKeyFactory(AES_KEY_ALGORITHM);
+      try {
+        byte[] encoded = keyFactory.generateSecret(new PBEKeySpec(password.toCharArray(), salt, AES_KEY_ITERATIONS, AES_KEY_BITS)).getEncoded();
+        key = new SecretKeySpec(encoded, "AES");
+      } finally {
+        CryptoPool.releaseKeyFactory(keyFactory);
+      }
+      aesKey = key;
+    }
+    return key;
   }
 
 }
@@ -1,19 +1,54 @@
 package com.github.sunnybat.commoncode.utilities;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 
 /**
+ * Hashes Strings with PBKDF2. {@link #PBKDF2(String)} produces a bare Base64 hash using this instance's salt. {@link #hash(String)} produces an
+ * encoded hash in the format $pbkdf2-ALGORITHM$ITERATIONS$SALT$HASH, which records everything needed to verify it later, so the algorithm and
+ * iteration count can change without invalidating hashes that are already stored.
  *
  * @author SunnyBat
  */
 public class HashUtils {
 
+  /**
+   * PBKDF2 with HMAC-SHA1.
+   */
+  public static final String PBKDF2_SHA1 = "PBKDF2WithHmacSHA1";
+  /**
+   * PBKDF2 with HMAC-SHA256. This is the default for {@link #hash(String)}.
+   */
+  public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+  /**
+   * PBKDF2 with HMAC-SHA512.
+   */
+  public static final String PBKDF2_SHA512 = "PBKDF2WithHmacSHA512";
+  private static final int DEFAULT_ITERATIONS = 65536;
+  private static final int DEFAULT_HASH_BITS = 256;
+  private static final int RANDOM_SALT_BYTES = 16;
+  private static final int CALIBRATION_ITERATIONS = 10000;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private static ExecutorService sharedExecutor;
   private byte[] salt;
+  private String algorithm = PBKDF2_SHA256;
+  private int iterations = DEFAULT_ITERATIONS;
+  private int hashBits = DEFAULT_HASH_BITS;
 
   /**
    * Creates a new HashUtils object. This is used for hashing Strings.
@@ -24,6 +59,353 @@ public class HashUtils {
     this.salt = salt;
   }
 
+  /**
+   * Creates a new HashUtils object that gives each encoded hash its own random salt. This is recommended for storing passwords. Note that
+   * {@link #PBKDF2(String)} cannot be used without a salt.
+   */
+  public HashUtils() {
+    this(null);
+  }
+
+  private static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Hash Worker " + THREAD_COUNT.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return sharedExecutor;
+  }
+
+  /**
+   * Sets the PBKDF2 algorithm used by {@link #hash(String)}.
+   *
+   * @param algorithm One of the PBKDF2 constants in this class
+   * @throws IllegalArgumentException If algorithm is not one of the PBKDF2 constants
+   */
+  public void setAlgorithm(String algorithm) {
+    getEncodedName(algorithm); // Validates algorithm
+    this.algorithm = algorithm;
+  }
+
+  /**
+   * Gets the PBKDF2 algorithm used by {@link #hash(String)}.
+   *
+   * @return The algorithm
+   */
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Sets the amount of iterations used by {@link #hash(String)}. The default is 65536.
+   *
+   * @param iterations The amount of iterations
+   * @throws IllegalArgumentException If iterations is less than 1
+   * @see #calibrate(long)
+   */
+  public void setIterations(int iterations) {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("iterations cannot be less than 1");
+    }
+    this.iterations = iterations;
+  }
+
+  /**
+   * Gets the amount of iterations used by {@link #hash(String)}.
+   *
+   * @return The amount of iterations
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Sets the amount of bits in hashes produced by {@link #hash(String)}. The default is 256.
+   *
+   * @param hashBits The amount of bits, which must be a positive multiple of 8
+   * @throws IllegalArgumentException If hashBits is not a positive multiple of 8
+   */
+  public void setHashLength(int hashBits) {
+    if (hashBits < 8 || hashBits % 8 != 0) {
+      throw new IllegalArgumentException("hashBits must be a positive multiple of 8");
+    }
+    this.hashBits = hashBits;
+  }
+
+  /**
+   * Gets the amount of bits in hashes produced by {@link #hash(String)}.
+   *
+   * @return The amount of bits
+   */
+  public int getHashLength() {
+    return hashBits;
+  }
+
+  /**
+   * Measures how fast this machine runs the current algorithm and sets the iteration count so that a single {@link #hash(String)} takes about the
+   * given amount of time. The result is rounded down to a multiple of 1000, and is never less than 1000.
+   *
+   * @param targetMillis How long a single hash should take, in milliseconds
+   * @return The new iteration count
+   * @throws IllegalArgumentException If targetMillis is less than 1
+   * @throws IllegalStateException If the algorithm is not supported
+   */
+  public int calibrate(long targetMillis) {
+    if (targetMillis < 1) {
+      throw new IllegalArgumentException("targetMillis cannot be less than 1");
+    }
+    char[] password = "calibration".toCharArray();
+    byte[] calibrationSalt = new byte[RANDOM_SALT_BYTES];
+    long fastest = Long.MAX_VALUE;
+    try {
+      for (int i = 0; i < 3; i++) { // The first run includes warmup, so take the fastest
+        long start = System.nanoTime();
+        derive(algorithm, password, calibrationSalt, CALIBRATION_ITERATIONS, hashBits);
+        fastest = Math.min(fastest, System.nanoTime() - start);
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to calibrate " + algorithm, e);
+    }
+    double iterationsPerMilli = CALIBRATION_ITERATIONS / (Math.max(1, fastest) / 1000000D);
+    long calibrated = (long) (iterationsPerMilli * targetMillis) / 1000 * 1000;
+    iterations = (int) Math.max(1000, Math.min(Integer.MAX_VALUE / 1000 * 1000, calibrated));
+    return iterations;
+  }
+
+  /**
+   * Hashes the given String and encodes the result with the algorithm, iteration count and salt used. If this HashUtils was created without a
+   * salt, a random salt is generated for this hash.
+   *
+   * @param toHash The String to hash
+   * @return The encoded hash, or null if an error occurs
+   * @throws NullPointerException if toHash is null
+   */
+  public String hash(String toHash) {
+    if (toHash == null) {
+      throw new NullPointerException("toHash is null");
+    }
+    byte[] hashSalt = salt;
+    if (hashSalt == null) {
+      hashSalt = new byte[RANDOM_SALT_BYTES];
+      RANDOM.nextBytes(hashSalt);
+    }
+    try {
+      byte[] hash = derive(algorithm, toHash.toCharArray(), hashSalt, iterations, hashBits);
+      return encode(algorithm, iterations, hashSalt, hash);
+    } catch (GeneralSecurityException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Hashes every given String with {@link #hash(String)}, spread across a shared pool with one thread per processor.
+   *
+   * @param toHash The Strings to hash
+   * @return The encoded hashes, in the same order. Each is null if the matching String was null or an error occurred.
+   * @throws InterruptedException If interrupted while waiting for the hashes
+   */
+  public List<String> hashAll(List<String> toHash) throws InterruptedException {
+    return hashAll(toHash, getSharedExecutor());
+  }
+
+  /**
+   * Hashes every given String with {@link #hash(String)} on the given executor. The amount of threads the executor has bounds how many hashes run
+   * at once.
+   *
+   * @param toHash The Strings to hash
+   * @param executor The executor to hash on
+   * @return The encoded hashes, in the same order. Each is null if the matching String was null or an error occurred.
+   * @throws InterruptedException If interrupted while waiting for the hashes. Hashes that have not started are cancelled.
+   */
+  public List<String> hashAll(List<String> toHash, ExecutorService executor) throws InterruptedException {
+    List<Callable<String>> tasks = new ArrayList<>(toHash.size());
+    for (final String value : toHash) {
+      tasks.add(new Callable<String>() {
+        @Override
+        public String call() {
+          return value == null ? null : hash(value);
+        }
+      });
+    }
+    String[] hashes = new String[tasks.size()];
+    List<Future<String>> futures = executor.invokeAll(tasks);
+    for (int i = 0; i < hashes.length; i++) {
+      try {
+        hashes[i] = futures.get(i).get();
+      } catch (ExecutionException e) {
+        // Leave this hash null
+      }
+    }
+    return Arrays.asList(hashes);
+  }
+
+  /**
+   * Checks whether the given String matches an encoded hash from {@link #hash(String)}. The stored algorithm, iteration count and salt are used, so
+   * hashes made under an older policy still verify. If this HashUtils has a salt, bare hashes from {@link #PBKDF2(String)} are also accepted. The
+   * comparison takes the same time no matter where the hashes differ.
+   *
+   * @param toCheck The String to check
+   * @param encodedHash The stored hash
+   * @return True if toCheck matches, false if it does not or encodedHash cannot be parsed
+   * @throws NullPointerException if toCheck is null
+   * @see #needsRehash(String)
+   */
+  public boolean verify(String toCheck, String encodedHash) {
+    if (toCheck == null) {
+      throw new NullPointerException("toCheck is null");
+    }
+    EncodedHash parsed = EncodedHash.parse(encodedHash, salt);
+    if (parsed == null) {
+      return false;
+    }
+    try {
+      byte[] hash = derive(parsed.algorithm, toCheck.toCharArray(), parsed.salt, parsed.iterations, parsed.hash.length * 8);
+      return MessageDigest.isEqual(hash, parsed.hash);
+    } catch (GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Checks whether the given encoded hash was made with weaker parameters than this HashUtils currently uses: an older algorithm, fewer iterations,
+   * a shorter hash, or the bare format from {@link #PBKDF2(String)}. This only parses the hash, so after a successful {@link #verify(String, String)}
+   * it can be used to decide whether to store a new {@link #hash(String)} without hashing again.
+   *
+   * @param encodedHash The stored hash
+   * @return True if the hash should be replaced, including if it cannot be parsed
+   */
+  public boolean needsRehash(String encodedHash) {
+    EncodedHash parsed = EncodedHash.parse(encodedHash, salt);
+    return parsed == null || parsed.legacy
+        || getStrength(parsed.algorithm) < getStrength(algorithm)
+        || parsed.iterations < iterations
+        || parsed.hash.length * 8 < hashBits;
+  }
+
+  private static int getStrength(String algorithm) {
+    if (PBKDF2_SHA1.equals(algorithm)) {
+      return 1;
+    } else if (PBKDF2_SHA256.equals(algorithm)) {
+      return 2;
+    } else {
+      return 3;
+    }
+  }
+
+  /**
+   * Runs PBKDF2 with the given parameters.
+   */
+  private static byte[] derive(String algorithm, char[] password, byte[] salt, int iterations, int hashBits) throws GeneralSecurityException {
+    SecretKeyFactory f = CryptoPool.acquireKeyFactory(algorithm);
+    try {
+      return f.generateSecret(new PBEKeySpec(password, salt, iterations, hashBits)).getEncoded();
+    } finally {
+      CryptoPool.releaseKeyFactory(f);
+    }
+  }
+
+  private static String encode(String algorithm, int iterations, byte[] salt, byte[] hash) {
+    Base64.Encoder enc = Base64.getEncoder().withoutPadding();
+    return "$pbkdf2-" + getEncodedName(algorithm) + "$" + iterations + "$" + enc.encodeToString(salt) + "$" + enc.encodeToString(hash);
+  }
+
+  /**
+   * The parameters and hash stored in an encoded hash.
+   */
+  private static class EncodedHash {
+
+    private final String algorithm;
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final boolean legacy;
+
+    private EncodedHash(String algorithm, int iterations, byte[] salt, byte[] hash, boolean legacy) {
+      this.algorithm = algorithm;
+      this.iterations = iterations;
+      this.salt = salt;
+      this.hash = hash;
+      this.legacy = legacy;
+    }
+
+    /**
+     * Parses the given encoded hash.
+     *
+     * @param encodedHash The hash to parse
+     * @param legacySalt The salt to use if encodedHash is a bare hash from {@link #PBKDF2(String)}, or null to reject bare hashes
+     * @return The parsed hash, or null if it is not valid
+     */
+    static EncodedHash parse(String encodedHash, byte[] legacySalt) {
+      if (encodedHash == null) {
+        return null;
+      }
+      try {
+        if (!encodedHash.startsWith("$pbkdf2-")) {
+          if (legacySalt == null) {
+            return null;
+          }
+          byte[] hash = Base64.getDecoder().decode(encodedHash);
+          return hash.length == 0 ? null : new EncodedHash(PBKDF2_SHA1, DEFAULT_ITERATIONS, legacySalt, hash, true);
+        }
+        int algorithmEnd = encodedHash.indexOf('$', 8);
+        int iterationsEnd = algorithmEnd == -1 ? -1 : encodedHash.indexOf('$', algorithmEnd + 1);
+        int saltEnd = iterationsEnd == -1 ? -1 : encodedHash.indexOf('$', iterationsEnd + 1);
+        if (saltEnd == -1) {
+          return null;
+        }
+        String algorithm = getAlgorithmForName(encodedHash.substring(8, algorithmEnd));
+        int iterations = Integer.parseInt(encodedHash.substring(algorithmEnd + 1, iterationsEnd));
+        Base64.Decoder dec = Base64.getDecoder();
+        byte[] salt = dec.decode(encodedHash.substring(iterationsEnd + 1, saltEnd));
+        byte[] hash = dec.decode(encodedHash.substring(saltEnd + 1));
+        if (algorithm == null || iterations < 1 || salt.length == 0 || hash.length == 0) {
+          return null;
+        }
+        return new EncodedHash(algorithm, iterations, salt, hash, false);
+      } catch (IllegalArgumentException e) { // Includes NumberFormatException
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Gets the algorithm for the given name used in encoded hashes.
+   *
+   * @return The algorithm, or null if the name is not recognized
+   */
+  private static String getAlgorithmForName(String name) {
+    switch (name) {
+      case "sha1":
+        return PBKDF2_SHA1;
+      case "sha256":
+        return PBKDF2_SHA256;
+      case "sha512":
+        return PBKDF2_SHA512;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets the name used for the given algorithm in encoded hashes.
+   */
+  private static String getEncodedName(String algorithm) {
+    if (PBKDF2_SHA1.equals(algorithm)) {
+      return "sha1";
+    } else if (PBKDF2_SHA256.equals(algorithm)) {
+      return "sha256";
+    } else if (PBKDF2_SHA512.equals(algorithm)) {
+      return "sha512";
+    } else {
+      throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+    }
+  }
+
   /**
    * Hashes the given String using PBKDF2. This uses 65536 iterations and generates a 128-bit hash.
    *
@@ -49,12 +431,10 @@ public class HashUtils {
       throw new NullPointerException("toHash is null");
     }
     try {
-      KeySpec spec = new PBEKeySpec(toHash.toCharArray(), salt, iterations, resultLength);
-      SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-      byte[] hash = f.generateSecret(spec).getEncoded();
+      byte[] hash = derive(PBKDF2_SHA1, toHash.toCharArray(), salt, iterations, resultLength);
       Base64.Encoder enc = Base64.getEncoder();
       return enc.encodeToString(hash);
-    } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+    } catch (GeneralSecurityException e) {
       return null;
     }
   }
@@ -0,0 +1,261 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts between bytes and hex Strings using lookup tables. Encoding produces uppercase hex; decoding accepts both uppercase and lowercase hex and
+ * rejects anything else. Every method that returns a new array or String also has a variant that writes into a caller-supplied char[], byte[] or
+ * ByteBuffer, so code that converts many small values does not have to allocate for each one.
+ *
+ * @author SunnyBat
+ */
+public final class HexCodec {
+
+  private static final char[] UPPER_DIGITS = "0123456789ABCDEF".toCharArray();
+  private static final char[] LOWER_DIGITS = "0123456789abcdef".toCharArray();
+  private static final char[] UPPER_TABLE = buildEncodeTable(UPPER_DIGITS);
+  private static final char[] LOWER_TABLE = buildEncodeTable(LOWER_DIGITS);
+  private static final byte[] DECODE_TABLE = buildDecodeTable();
+
+  private HexCodec() {
+  }
+
+  /**
+   * Builds a table of two chars for every byte value, so encoding a byte is two array reads.
+   */
+  private static char[] buildEncodeTable(char[] digits) {
+    char[] table = new char[512];
+    for (int i = 0; i < 256; i++) {
+      table[i * 2] = digits[i >>> 4];
+      table[i * 2 + 1] = digits[i & 0x0F];
+    }
+    return table;
+  }
+
+  /**
+   * Builds a table mapping every char below 128 to its hex value, or -1 if it is not a hex digit.
+   */
+  private static byte[] buildDecodeTable() {
+    byte[] table = new byte[128];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = -1;
+    }
+    for (int i = 0; i < 16; i++) {
+      table[UPPER_DIGITS[i]] = (byte) i;
+      table[LOWER_DIGITS[i]] = (byte) i;
+    }
+    return table;
+  }
+
+  /**
+   * Converts the given bytes to an uppercase hex String.
+   *
+   * @param bytes The bytes to convert
+   * @return The hex String representation
+   * @throws IllegalArgumentException if bytes is null
+   */
+  public static String encode(byte[] bytes) {
+    return encode(bytes, true);
+  }
+
+  /**
+   * Converts the given bytes to a hex String.
+   *
+   * @param bytes The bytes to convert
+   * @param upperCase True to use uppercase hex digits, false to use lowercase
+   * @return The hex String representation
+   * @throws IllegalArgumentException if bytes is null
+   */
+  public static String encode(byte[] bytes, boolean upperCase) {
+    if (bytes == null) {
+      throw new IllegalArgumentException("bytes must not be null");
+    }
+    char[] hex = new char[bytes.length * 2];
+    encode(bytes, 0, bytes.length, hex, 0, upperCase);
+    return new String(hex);
+  }
+
+  /**
+   * Converts the given range of bytes to uppercase hex, writing it into the given char array.
+   *
+   * @param bytes The bytes to convert
+   * @param offset The offset in bytes to start at
+   * @param length The amount of bytes to convert
+   * @param dest The char array to write to. This must have room for length * 2 chars.
+   * @param destOffset The offset in dest to start writing at
+   * @return The amount of chars written
+   * @throws IllegalArgumentException if bytes or dest is null
+   * @throws IndexOutOfBoundsException if either range is out of bounds
+   */
+  public static int encode(byte[] bytes, int offset, int length, char[] dest, int destOffset) {
+    return encode(bytes, offset, length, dest, destOffset, true);
+  }
+
+  /**
+   * Converts the given range of bytes to hex, writing it into the given char array.
+   *
+   * @param bytes The bytes to convert
+   * @param offset The offset in bytes to start at
+   * @param length The amount of bytes to convert
+   * @param dest The char array to write to. This must have room for length * 2 chars.
+   * @param destOffset The offset in dest to start writing at
+   * @param upperCase True to use uppercase hex digits, false to use lowercase
+   * @return The amount of chars written
+   * @throws IllegalArgumentException if bytes or dest is null
+   * @throws IndexOutOfBoundsException if either range is out of bounds
+   */
+  public static int encode(byte[] bytes, int offset, int length, char[] dest, int destOffset, boolean upperCase) {
+    if (bytes == null || dest == null) {
+      throw new IllegalArgumentException("bytes and dest must not be null");
+    }
+    checkRange(bytes.length, offset, length);
+    checkRange(dest.length, destOffset, length * 2);
+    char[] table = upperCase ? UPPER_TABLE : LOWER_TABLE;
+    int d = destOffset;
+    for (int i = offset; i < offset + length; i++) {
+      int index = (bytes[i] & 0xFF) << 1;
+      dest[d++] = table[index];
+      dest[d++] = table[index + 1];
+    }
+    return length * 2;
+  }
+
+  /**
+   * Converts the remaining bytes of the given ByteBuffer to uppercase hex, writing it into the given char array. The buffer's position is moved to
+   * its limit.
+   *
+   * @param bytes The ByteBuffer to convert
+   * @param dest The char array to write to. This must have room for bytes.remaining() * 2 chars.
+   * @param destOffset The offset in dest to start writing at
+   * @return The amount of chars written
+   * @throws IllegalArgumentException if bytes or dest is null
+   * @throws IndexOutOfBoundsException if dest does not have enough room
+   */
+  public static int encode(ByteBuffer bytes, char[] dest, int destOffset) {
+    if (bytes == null || dest == null) {
+      throw new IllegalArgumentException("bytes and dest must not be null");
+    }
+    int length = bytes.remaining();
+    checkRange(dest.length, destOffset, length * 2);
+    int d = destOffset;
+    while (bytes.hasRemaining()) {
+      int index = (bytes.get() & 0xFF) << 1;
+      dest[d++] = UPPER_TABLE[index];
+      dest[d++] = UPPER_TABLE[index + 1];
+    }
+    return length * 2;
+  }
+
+  /**
+   * Converts the given hex String to bytes. Both uppercase and lowercase hex digits are accepted.
+   *
+   * @param hex The hex to convert
+   * @return The decoded bytes
+   * @throws IllegalArgumentException if hex is null, has an odd amount of characters, or contains a character that is not a hex digit
+   */
+  public static byte[] decode(CharSequence hex) {
+    if (hex == null) {
+      throw new IllegalArgumentException("hex must not be null");
+    }
+    checkEven(hex);
+    byte[] bytes = new byte[hex.length() / 2];
+    decode(hex, bytes, 0);
+    return bytes;
+  }
+
+  /**
+   * Converts the given hex String to bytes, writing them into the given byte array. Both uppercase and lowercase hex digits are accepted. If hex is
+   * invalid, dest may have been partially written to.
+   *
+   * @param hex The hex to convert
+   * @param dest The byte array to write to. This must have room for hex.length() / 2 bytes.
+   * @param destOffset The offset in dest to start writing at
+   * @return The amount of bytes written
+   * @throws IllegalArgumentException if hex or dest is null, hex has an odd amount of characters, or hex contains a character that is not a hex
+   * digit
+   * @throws IndexOutOfBoundsException if dest does not have enough room
+   */
+  public static int decode(CharSequence hex, byte[] dest, int destOffset) {
+    if (hex == null || dest == null) {
+      throw new IllegalArgumentException("hex and dest must not be null");
+    }
+    checkEven(hex);
+    int length = hex.length() / 2;
+    checkRange(dest.length, destOffset, length);
+    for (int i = 0; i < length; i++) {
+      dest[destOffset + i] = decodeByte(hex, i * 2);
+    }
+    return length;
+  }
+
+  /**
+   * Converts the given hex String to bytes, writing them into the given ByteBuffer at its position. Both uppercase and lowercase hex digits are
+   * accepted. If hex is invalid, dest may have been partially written to.
+   *
+   * @param hex The hex to convert
+   * @param dest The ByteBuffer to write to. This must have hex.length() / 2 bytes remaining.
+   * @return The amount of bytes written
+   * @throws IllegalArgumentException if hex or dest is null, hex has an odd amount of characters, or hex contains a character that is not a hex
+   * digit
+   * @throws BufferOverflowException if dest does not have enough room
+   */
+  public static int decode(CharSequence hex, ByteBuffer dest) {
+    if (hex == null || dest == null) {
+      throw new IllegalArgumentException("hex and dest must not be null");
+    }
+    checkEven(hex);
+    int length = hex.length() / 2;
+    if (dest.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+    for (int i = 0; i < length; i++) {
+      dest.put(decodeByte(hex, i * 2));
+    }
+    return length;
+  }
+
+  /**
+   * Checks whether the given String is valid hex, meaning it has an even amount of characters and only contains hex digits.
+   *
+   * @param hex The String to check
+   * @return True if hex is valid, false if not
+   */
+  public static boolean isHex(CharSequence hex) {
+    if (hex == null || hex.length() % 2 == 1) {
+      return false;
+    }
+    for (int i = 0; i < hex.length(); i++) {
+      char c = hex.charAt(i);
+      if (c >= DECODE_TABLE.length || DECODE_TABLE[c] == -1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte decodeByte(CharSequence hex, int index) {
+    return (byte) ((digit(hex, index) << 4) | digit(hex, index + 1));
+  }
+
+  private static int digit(CharSequence hex, int index) {
+    char c = hex.charAt(index);
+    int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+    if (value == -1) {
+      throw new IllegalArgumentException("Invalid hex character '" + c + "' at index " + index);
+    }
+    return value;
+  }
+
+  private static void checkEven(CharSequence hex) {
+    if (hex.length() % 2 == 1) {
+      throw new IllegalArgumentException("hex must contain an even amount of characters");
+    }
+  }
+
+  private static void checkRange(int arrayLength, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+      throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + arrayLength);
+    }
+  }
+}
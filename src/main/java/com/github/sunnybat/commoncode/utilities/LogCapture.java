@@ -0,0 +1,451 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * Encodes, reads and filters structured captures written by a SavePrintStream. Captures are read one record at a time, so files of any size can be
+ * scanned without loading them into memory.
+ * <p>
+ * In the {@link Format#BINARY} format, each record is a 4-byte length followed by that many bytes: an 8-byte timestamp, a 2-byte length and the
+ * UTF-8 thread name, a 1-byte length and the UTF-8 level, then the UTF-8 message. In the {@link Format#NDJSON} format, each record is a JSON object
+ * with ts, thread, level and msg fields on its own line. All numbers are big-endian.
+ *
+ * @author SunnyBat
+ */
+public final class LogCapture {
+
+  private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * The formats a capture can be written in.
+   */
+  public enum Format {
+
+    /**
+     * Length-prefixed binary records. This is the most compact and fastest to read.
+     */
+    BINARY,
+    /**
+     * One JSON object per line, which other tools can read directly.
+     */
+    NDJSON
+  }
+
+  private LogCapture() {
+  }
+
+  /**
+   * Encodes the given LogRecord.
+   *
+   * @param record The LogRecord to encode
+   * @param format The format to encode it in
+   * @return The encoded LogRecord
+   */
+  public static byte[] encode(LogRecord record, Format format) {
+    if (format == Format.NDJSON) {
+      StringBuilder json = new StringBuilder(record.getMessage().length() + 64);
+      json.append("{\"ts\":").append(record.getTimestamp());
+      json.append(",\"thread\":");
+      appendJsonString(json, record.getThreadName());
+      json.append(",\"level\":");
+      appendJsonString(json, record.getLevel());
+      json.append(",\"msg\":");
+      appendJsonString(json, record.getMessage());
+      json.append("}\n");
+      return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    byte[] thread = truncate(record.getThreadName().getBytes(StandardCharsets.UTF_8), 0xFFFF);
+    byte[] level = truncate(record.getLevel().getBytes(StandardCharsets.UTF_8), 0xFF);
+    byte[] message = record.getMessage().getBytes(StandardCharsets.UTF_8);
+    int bodyLength = 8 + 2 + thread.length + 1 + level.length + message.length;
+    ByteBuffer buffer = ByteBuffer.allocate(4 + bodyLength);
+    buffer.putInt(bodyLength);
+    buffer.putLong(record.getTimestamp());
+    buffer.putShort((short) thread.length);
+    buffer.put(thread);
+    buffer.put((byte) level.length);
+    buffer.put(level);
+    buffer.put(message);
+    return buffer.array();
+  }
+
+  /**
+   * Truncates UTF-8 bytes to at most maxLength bytes without splitting a character.
+   */
+  private static byte[] truncate(byte[] bytes, int maxLength) {
+    if (bytes.length <= maxLength) {
+      return bytes;
+    }
+    int length = maxLength;
+    while (length > 0 && (bytes[length] & 0xC0) == 0x80) { // bytes[length] continues a character that starts before the cut
+      length--;
+    }
+    byte[] truncated = new byte[length];
+    System.arraycopy(bytes, 0, truncated, 0, length);
+    return truncated;
+  }
+
+  private static void appendJsonString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        case '\r':
+          json.append("\\r");
+          break;
+        case '\t':
+          json.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    json.append('"');
+  }
+
+  /**
+   * Opens a Reader over the given capture.
+   *
+   * @param in The InputStream to read the capture from. This is closed when the Reader is closed.
+   * @param format The format the capture was written in
+   * @return The Reader
+   */
+  public static Reader open(InputStream in, Format format) {
+    if (in == null || format == null) {
+      throw new IllegalArgumentException("in and format cannot be null");
+    }
+    return format == Format.NDJSON ? new JsonReader(in) : new BinaryReader(in);
+  }
+
+  /**
+   * Reads the given capture and writes every record that passes the filter to out as a line of plain text.
+   *
+   * @param in The InputStream to read the capture from. This is not closed.
+   * @param format The format the capture was written in
+   * @param filter The filter records must pass, or null to write every record
+   * @param out The Writer to write matching records to
+   * @return The amount of records written
+   * @throws IOException If an IOException occurs while reading or writing, or the capture is malformed
+   */
+  public static long filter(InputStream in, Format format, Predicate<LogRecord> filter, Writer out) throws IOException {
+    Reader reader = open(in, format);
+    long matched = 0;
+    LogRecord record;
+    while ((record = reader.read()) != null) {
+      if (filter == null || filter.test(record)) {
+        out.write(record.toString());
+        out.write(System.lineSeparator());
+        matched++;
+      }
+    }
+    out.flush();
+    return matched;
+  }
+
+  /**
+   * Reads records from a capture one at a time.
+   */
+  public abstract static class Reader implements Closeable {
+
+    /**
+     * Reads the next record.
+     *
+     * @return The next record, or null if the end of the capture has been reached
+     * @throws IOException If an IOException occurs while reading, or the capture is malformed
+     */
+    public abstract LogRecord read() throws IOException;
+  }
+
+  /**
+   * A filter that matches records by time, thread, level and message. Every condition that has been set must match. The setters return this
+   * Filter, so conditions can be chained.
+   */
+  public static class Filter implements Predicate<LogRecord> {
+
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private String threadName;
+    private String level;
+    private String contains;
+
+    /**
+     * Only matches records printed within the given time range.
+     *
+     * @param since The earliest timestamp to match, inclusive
+     * @param until The latest timestamp to match, inclusive
+     * @return This Filter
+     */
+    public Filter setTimeRange(long since, long until) {
+      this.since = since;
+      this.until = until;
+      return this;
+    }
+
+    /**
+     * Only matches records printed by the given thread.
+     *
+     * @param threadName The thread name to match, or null to match any thread
+     * @return This Filter
+     */
+    public Filter setThreadName(String threadName) {
+      this.threadName = threadName;
+      return this;
+    }
+
+    /**
+     * Only matches records with the given level, ignoring case.
+     *
+     * @param level The level to match, or null to match any level
+     * @return This Filter
+     */
+    public Filter setLevel(String level) {
+      this.level = level;
+      return this;
+    }
+
+    /**
+     * Only matches records whose message contains the given text.
+     *
+     * @param contains The text to look for, or null to match any message
+     * @return This Filter
+     */
+    public Filter setContains(String contains) {
+      this.contains = contains;
+      return this;
+    }
+
+    @Override
+    public boolean test(LogRecord record) {
+      return record.getTimestamp() >= since && record.getTimestamp() <= until
+          && (threadName == null || threadName.equals(record.getThreadName()))
+          && (level == null || level.equalsIgnoreCase(record.getLevel()))
+          && (contains == null || record.getMessage().contains(contains));
+    }
+  }
+
+  private static class BinaryReader extends Reader {
+
+    private final DataInputStream in;
+    private byte[] buffer = new byte[1024];
+
+    BinaryReader(InputStream in) {
+      this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    @Override
+    public LogRecord read() throws IOException {
+      int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return null;
+      }
+      if (length < 11 || length > MAX_RECORD_BYTES) {
+        throw new IOException("Malformed record length " + length);
+      }
+      if (buffer.length < length) {
+        buffer = new byte[Math.max(length, buffer.length * 2)];
+      }
+      in.readFully(buffer, 0, length); // Reuses the buffer so scanning a large capture does not allocate per record
+      ByteBuffer body = ByteBuffer.wrap(buffer, 0, length);
+      long timestamp = body.getLong();
+      int threadLength = body.getShort() & 0xFFFF;
+      if (body.remaining() < threadLength + 1) {
+        throw new IOException("Malformed record");
+      }
+      String threadName = new String(buffer, body.position(), threadLength, StandardCharsets.UTF_8);
+      body.position(body.position() + threadLength);
+      int levelLength = body.get() & 0xFF;
+      if (body.remaining() < levelLength) {
+        throw new IOException("Malformed record");
+      }
+      String level = new String(buffer, body.position(), levelLength, StandardCharsets.UTF_8);
+      body.position(body.position() + levelLength);
+      String message = new String(buffer, body.position(), body.remaining(), StandardCharsets.UTF_8);
+      return new LogRecord(timestamp, threadName, level, message);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads the NDJSON written by {@link #encode(LogRecord, Format)}. This only understands flat objects with string and number values, which is all
+   * a capture contains.
+   */
+  private static class JsonReader extends Reader {
+
+    private final BufferedReader in;
+    private String line;
+    private int index;
+
+    JsonReader(InputStream in) {
+      this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    @Override
+    public LogRecord read() throws IOException {
+      do {
+        line = in.readLine();
+        if (line == null) {
+          return null;
+        }
+      } while (line.trim().isEmpty());
+      index = 0;
+      long timestamp = 0;
+      String threadName = "";
+      String level = "";
+      String message = "";
+      expect('{');
+      skipWhitespace();
+      if (peek() == '}') {
+        return new LogRecord(timestamp, threadName, level, message);
+      }
+      while (true) {
+        String key = readString();
+        expect(':');
+        skipWhitespace();
+        if (peek() == '"') {
+          String value = readString();
+          if (key.equals("thread")) {
+            threadName = value;
+          } else if (key.equals("level")) {
+            level = value;
+          } else if (key.equals("msg")) {
+            message = value;
+          }
+        } else {
+          long value = readNumber();
+          if (key.equals("ts")) {
+            timestamp = value;
+          }
+        }
+        skipWhitespace();
+        char next = next();
+        if (next == '}') {
+          return new LogRecord(timestamp, threadName, level, message);
+        } else if (next != ',') {
+          throw malformed();
+        }
+      }
+    }
+
+    private String readString() throws IOException {
+      expect('"');
+      StringBuilder value = new StringBuilder();
+      while (true) {
+        char c = next();
+        if (c == '"') {
+          return value.toString();
+        } else if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        c = next();
+        switch (c) {
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'u':
+            if (index + 4 > line.length()) {
+              throw malformed();
+            }
+            try {
+              value.append((char) Integer.parseInt(line.substring(index, index + 4), 16));
+            } catch (NumberFormatException e) {
+              throw malformed();
+            }
+            index += 4;
+            break;
+          default:
+            value.append(c); // \" \\ and \/
+        }
+      }
+    }
+
+    private long readNumber() throws IOException {
+      int start = index;
+      while (index < line.length() && (Character.isDigit(line.charAt(index)) || line.charAt(index) == '-')) {
+        index++;
+      }
+      try {
+        return Long.parseLong(line.substring(start, index));
+      } catch (NumberFormatException e) {
+        throw malformed();
+      }
+    }
+
+    private void expect(char expected) throws IOException {
+      skipWhitespace();
+      if (next() != expected) {
+        throw malformed();
+      }
+    }
+
+    private void skipWhitespace() {
+      while (index < line.length() && Character.isWhitespace(line.charAt(index))) {
+        index++;
+      }
+    }
+
+    private char peek() throws IOException {
+      if (index >= line.length()) {
+        throw malformed();
+      }
+      return line.charAt(index);
+    }
+
+    private char next() throws IOException {
+      char c = peek();
+      index++;
+      return c;
+    }
+
+    private IOException malformed() {
+      return new IOException("Malformed record: " + line);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A single line of output captured by a SavePrintStream in structured mode.
+ *
+ * @author SunnyBat
+ * @see LogCapture
+ */
+public final class LogRecord {
+
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); // Not thread-safe, so each thread keeps its own
+    }
+  };
+  private final long timestamp;
+  private final String threadName;
+  private final String level;
+  private final String message;
+
+  /**
+   * Creates a new LogRecord.
+   *
+   * @param timestamp When the line was printed, in milliseconds since the epoch
+   * @param threadName The name of the thread that printed the line
+   * @param level The level of the line, eg INFO or ERROR
+   * @param message The line, without a line separator
+   * @throws IllegalArgumentException If threadName, level or message is null
+   */
+  public LogRecord(long timestamp, String threadName, String level, String message) {
+    if (threadName == null || level == null || message == null) {
+      throw new IllegalArgumentException("threadName, level and message cannot be null");
+    }
+    this.timestamp = timestamp;
+    this.threadName = threadName;
+    this.level = level;
+    this.message = message;
+  }
+
+  /**
+   * Gets when the line was printed.
+   *
+   * @return The timestamp, in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Gets the name of the thread that printed the line.
+   *
+   * @return The thread name
+   */
+  public String getThreadName() {
+    return threadName;
+  }
+
+  /**
+   * Gets the level of the line.
+   *
+   * @return The level
+   */
+  public String getLevel() {
+    return level;
+  }
+
+  /**
+   * Gets the line that was printed.
+   *
+   * @return The line, without a line separator
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Formats this LogRecord as a line of plain text, eg 2018-01-31 12:34:56.789 [main] INFO Message.
+   *
+   * @return This LogRecord as plain text
+   */
+  @Override
+  public String toString() {
+    return DATE_FORMAT.get().format(new Date(timestamp)) + " [" + threadName + "] " + level + " " + message;
+  }
+}
@@ -1,7 +1,12 @@
 package com.github.sunnybat.commoncode.utilities;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -12,55 +17,33 @@ import java.security.NoSuchAlgorithmException;
  */
 public class MD5Utils {
 
-  private static final int DEFAULT_BUFFER_SIZE = 1024;
+  private static final int DEFAULT_BUFFER_SIZE = 8 * 1024; // Large enough for file and network streams without making short Strings costly
+  private static final int CHANNEL_BUFFER_SIZE = 64 * 1024; // Only files too small to map use this, and it is capped at the file's length
+  private static final long MAP_THRESHOLD = 1024 * 1024; // Mapping small files costs more than reading them
+  private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
 
   /**
-   * Converts a given byte array to a readable hex String. Note that this is generally
+   * Converts a given byte array to a readable uppercase hex String.
    *
    * @param bytes The bytes to convert into a hex String
    * @return The hex String representation
    * @throws IllegalArgumentException if bytes is null
+   * @see HexCodec#encode(byte[])
    */
-  public static final String toHexString(byte[] bytes) { // CHECK: Move this to a separate class, since it's applicable to more than just MD5?
-    if (bytes == null) {
-      throw new IllegalArgumentException("byte array must not be null");
-    }
-    StringBuilder hex = new StringBuilder(bytes.length * 2);
-    for (int i = 0; i < bytes.length; i++) {
-      hex.append(Character.toUpperCase(Character.forDigit((bytes[i] & 0XF0) >> 4, 16)));
-      hex.append(Character.toUpperCase(Character.forDigit((bytes[i] & 0X0F), 16)));
-    }
-    return hex.toString();
+  public static final String toHexString(byte[] bytes) {
+    return HexCodec.encode(bytes);
   }
 
   /**
-   * Converts the given hex String to a byte array. Note that this does not check character values, and will basically return garbage if anything
-   * outside of base16 character representations (0-9 and a-f) are used.
+   * Converts the given hex String to a byte array. Both uppercase and lowercase hex digits are accepted.
    *
    * @param hexString The hex String to convert
    * @return A byte array representing the given hex String
-   * @throws IllegalArgumentException if hexString is null or has an odd amount of characters in it
+   * @throws IllegalArgumentException if hexString is null, has an odd amount of characters in it, or contains a character that is not a hex digit
+   * @see HexCodec#decode(CharSequence)
    */
-  public static final byte[] toByteArray(String hexString) { // CHECK: Move this to a separate class, since it's applicable to more than just MD5?
-    if (hexString == null) {
-      throw new IllegalArgumentException("hexString must not be null");
-    } else if (hexString.length() % 2 == 1) {
-      throw new IllegalArgumentException("hexString must contain an even amount of characters");
-    }
-    byte[] array = new byte[hexString.length() / 2];
-    for (int i = 0; i < hexString.length(); i += 2) {
-      array[i / 2] += convert(hexString.charAt(i)) << 4;
-      array[i / 2] += convert(hexString.charAt(i + 1));
-    }
-    return array;
-  }
-
-  private static byte convert(char one) {
-    if (one >= 'A' && one <= 'F') {
-      return (byte) (one - 'A' + 10);
-    } else {
-      return (byte) (one - '0');
-    }
+  public static final byte[] toByteArray(String hexString) {
+    return HexCodec.decode(hexString);
   }
 
   /**
@@ -96,15 +79,92 @@ public class MD5Utils {
     } else if (inputBufferSize < 1) {
       throw new IllegalArgumentException("inputBufferSize cannot be less than 1");
     }
-    MessageDigest mDigest = MessageDigest.getInstance("MD5");
-    mDigest.reset();
-    byte[] bytes = new byte[inputBufferSize];
-    int numBytes;
-    while ((numBytes = readFrom.read(bytes)) != -1) {
-      mDigest.update(bytes, 0, numBytes);
+    MessageDigest mDigest = CryptoPool.acquireDigest("MD5");
+    try {
+      byte[] bytes = new byte[inputBufferSize];
+      int numBytes;
+      while ((numBytes = readFrom.read(bytes)) != -1) {
+        mDigest.update(bytes, 0, numBytes);
+      }
+      return mDigest.digest();
+    } finally {
+      CryptoPool.releaseDigest(mDigest);
+    }
+  }
+
+  /**
+   * Gets the MD5 of the given file. Large files are memory-mapped and small files are read through a direct buffer, so the file contents are never
+   * copied onto the heap.
+   *
+   * @param readFrom The file to run an MD5 calculation on
+   * @return The MD5 digest in a byte array
+   * @throws NoSuchAlgorithmException If the MD5 algorithm is not found
+   * @throws IOException If an IOException occurs while reading the given file
+   * @throws IllegalArgumentException if readFrom is null
+   */
+  public static byte[] getByteMD5(Path readFrom)
+      throws NoSuchAlgorithmException, IOException {
+    if (readFrom == null) {
+      throw new IllegalArgumentException("readFrom cannot be null");
+    }
+    MessageDigest mDigest = CryptoPool.acquireDigest("MD5");
+    try (FileChannel channel = FileChannel.open(readFrom, StandardOpenOption.READ)) {
+      updateDigest(mDigest, channel, 0, channel.size());
+      return mDigest.digest();
+    } finally {
+      CryptoPool.releaseDigest(mDigest);
+    }
+  }
+
+  /**
+   * Gets the MD5 of the given file. Large files are memory-mapped and small files are read through a direct buffer, so the file contents are never
+   * copied onto the heap.
+   *
+   * @param readFrom The file to run an MD5 calculation on
+   * @return The MD5 digest in a byte array
+   * @throws NoSuchAlgorithmException If the MD5 algorithm is not found
+   * @throws IOException If an IOException occurs while reading the given file
+   * @throws IllegalArgumentException if readFrom is null
+   */
+  public static byte[] getByteMD5(File readFrom)
+      throws NoSuchAlgorithmException, IOException {
+    if (readFrom == null) {
+      throw new IllegalArgumentException("readFrom cannot be null");
+    }
+    return getByteMD5(readFrom.toPath());
+  }
+
+  /**
+   * Feeds the given region of a file into the given MessageDigest without copying it onto the heap.
+   *
+   * @param mDigest The MessageDigest to update
+   * @param channel The channel to read from
+   * @param position The position in the file to start at
+   * @param length The amount of bytes to hash
+   * @throws IOException If an IOException occurs while reading the file
+   */
+  static void updateDigest(MessageDigest mDigest, FileChannel channel, long position, long length) throws IOException {
+    long end = position + length;
+    if (length >= MAP_THRESHOLD) {
+      while (position < end) {
+        long windowSize = Math.min(MAP_WINDOW_SIZE, end - position);
+        mDigest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize));
+        position += windowSize;
+      }
+    } else {
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(CHANNEL_BUFFER_SIZE, length)));
+      while (position < end) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+        int numBytes = channel.read(buffer, position);
+        if (numBytes == -1) {
+          throw new IOException("File ended before " + end + " bytes were read");
+        }
+        buffer.flip();
+        mDigest.update(buffer);
+        position += numBytes;
+      }
     }
-    byte[] digest = mDigest.digest();
-    return digest;
   }
 
   /**
@@ -130,6 +190,34 @@ public class MD5Utils {
     return individual;
   }
 
+  /**
+   * Gets the MD5 of the given file. The result is a String representation of each hex value of the MD5 result.
+   *
+   * @param readFrom The file to run an MD5 calculation on
+   * @return A String representation of the MD5 calculation
+   * @throws NoSuchAlgorithmException If the MD5 algorithm is not found
+   * @throws IOException If an IOException occurs while reading the given file
+   * @throws IllegalArgumentException if readFrom is null
+   */
+  public static String getStringMD5(Path readFrom)
+      throws NoSuchAlgorithmException, IOException {
+    return toHexString(getByteMD5(readFrom));
+  }
+
+  /**
+   * Gets the MD5 of the given file. The result is a String representation of each hex value of the MD5 result.
+   *
+   * @param readFrom The file to run an MD5 calculation on
+   * @return A String representation of the MD5 calculation
+   * @throws NoSuchAlgorithmException If the MD5 algorithm is not found
+   * @throws IOException If an IOException occurs while reading the given file
+   * @throws IllegalArgumentException if readFrom is null
+   */
+  public static String getStringMD5(File readFrom)
+      throws NoSuchAlgorithmException, IOException {
+    return toHexString(getByteMD5(readFrom));
+  }
+
   /**
    * Gets the MD5 of the given InputStream. The result is a String representation of each hex value of the MD5 result.
    *
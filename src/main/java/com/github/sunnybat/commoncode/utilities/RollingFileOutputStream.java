@@ -0,0 +1,255 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An OutputStream that writes to a series of dated files, starting a new one when the current one reaches a maximum size or the date changes. For a
+ * base path of logs/Output.txt, files are named logs/Output 2018-01-31.txt, logs/Output 2018-01-31 (2).txt and so on. Finished files are gzipped on a
+ * background thread, and the oldest files are deleted once there are more than the retention cap.
+ * <p>
+ * The directory is listed once when this stream is created to find the next free index and the existing files; after that both are tracked in
+ * memory, so rotating never has to probe the disk for a free name.
+ *
+ * @author SunnyBat
+ */
+class RollingFileOutputStream extends OutputStream {
+
+  private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "Save Print Stream Compressor");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  private final File directory;
+  private final String baseName;
+  private final String extension;
+  private final long maxFileBytes;
+  private final int maxFiles;
+  private final Pattern segmentPattern;
+  private final Deque<File> finishedFiles = new ArrayDeque<>(); // Oldest first, named without .gz
+  private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+  private OutputStream current;
+  private File currentFile;
+  private long currentBytes;
+  private String currentDate;
+  private int nextIndex;
+  private long nextMidnight;
+  private boolean closed;
+
+  /**
+   * Creates a new RollingFileOutputStream and opens its first file.
+   *
+   * @param basePath The path to base file names on
+   * @param maxFileBytes The size at which to start a new file, or 0 to only start new files when the date changes
+   * @param maxFiles The maximum amount of files to keep, including the current one, or 0 to keep every file
+   * @throws FileNotFoundException If the first file cannot be opened
+   * @throws IllegalArgumentException If maxFileBytes or maxFiles is negative
+   */
+  RollingFileOutputStream(String basePath, long maxFileBytes, int maxFiles) throws FileNotFoundException {
+    if (maxFileBytes < 0) {
+      throw new IllegalArgumentException("maxFileBytes cannot be negative");
+    } else if (maxFiles < 0) {
+      throw new IllegalArgumentException("maxFiles cannot be negative");
+    }
+    File base = new File(basePath).getAbsoluteFile();
+    directory = base.getParentFile();
+    String name = base.getName();
+    int dot = name.lastIndexOf('.');
+    baseName = dot > 0 ? name.substring(0, dot) : name;
+    extension = dot > 0 ? name.substring(dot) : "";
+    this.maxFileBytes = maxFileBytes;
+    this.maxFiles = maxFiles;
+    segmentPattern = Pattern.compile(Pattern.quote(baseName + " ") + "(\\d{4}-\\d{2}-\\d{2})(?: \\((\\d+)\\))?" + Pattern.quote(extension)
+        + "(\\.gz)?");
+    if (directory != null) {
+      directory.mkdirs();
+    }
+    scanExistingFiles();
+    openNextFile();
+  }
+
+  /**
+   * Lists the directory once to find today's next free index and every existing file, oldest first. Files left uncompressed by an earlier stream
+   * are queued for compression, since the current file is always a new one.
+   */
+  private void scanExistingFiles() {
+    currentDate = dateFormat.format(new Date());
+    nextIndex = 1;
+    File[] files = directory == null ? null : directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    List<File> existing = new ArrayList<>();
+    for (File file : files) {
+      Matcher matcher = segmentPattern.matcher(file.getName());
+      if (!matcher.matches()) {
+        continue;
+      }
+      if (matcher.group(1).equals(currentDate)) {
+        int index = matcher.group(2) == null ? 1 : Integer.parseInt(matcher.group(2));
+        nextIndex = Math.max(nextIndex, index + 1);
+      }
+      existing.add(file);
+    }
+    Collections.sort(existing, new Comparator<File>() {
+      @Override
+      public int compare(File first, File second) {
+        return Long.compare(first.lastModified(), second.lastModified());
+      }
+    });
+    for (File file : existing) {
+      String fileName = file.getName();
+      if (fileName.endsWith(".gz")) {
+        finishedFiles.addLast(new File(directory, fileName.substring(0, fileName.length() - 3)));
+      } else {
+        finishedFiles.addLast(file);
+        queueCompression(file);
+      }
+    }
+  }
+
+  private void openNextFile() throws FileNotFoundException {
+    String date = dateFormat.format(new Date());
+    if (!date.equals(currentDate)) {
+      currentDate = date;
+      nextIndex = 1;
+    }
+    currentFile = new File(directory, baseName + " " + currentDate + (nextIndex == 1 ? "" : " (" + nextIndex + ")") + extension);
+    nextIndex++;
+    current = new FileOutputStream(currentFile);
+    currentBytes = 0;
+    Calendar midnight = Calendar.getInstance();
+    midnight.set(Calendar.HOUR_OF_DAY, 0);
+    midnight.set(Calendar.MINUTE, 0);
+    midnight.set(Calendar.SECOND, 0);
+    midnight.set(Calendar.MILLISECOND, 0);
+    midnight.add(Calendar.DAY_OF_MONTH, 1);
+    nextMidnight = midnight.getTimeInMillis();
+    enforceRetention();
+  }
+
+  /**
+   * Closes the current file, queues it for compression, and opens the next one.
+   */
+  private void rotate() throws IOException {
+    current.close();
+    finishedFiles.addLast(currentFile);
+    queueCompression(currentFile);
+    openNextFile();
+  }
+
+  private static void queueCompression(final File file) {
+    COMPRESSOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        compress(file);
+      }
+    });
+  }
+
+  /**
+   * Deletes the oldest finished files until there are at most maxFiles files, counting the current one.
+   */
+  private void enforceRetention() {
+    while (maxFiles > 0 && finishedFiles.size() + 1 > maxFiles) {
+      final File oldest = finishedFiles.removeFirst();
+      COMPRESSOR.execute(new Runnable() { // Runs after any pending compression of the same file
+        @Override
+        public void run() {
+          oldest.delete();
+          new File(oldest.getPath() + ".gz").delete();
+        }
+      });
+    }
+  }
+
+  /**
+   * Gzips the given file and deletes the original. The compressed file is written under a temporary name first, so a partially-compressed file is
+   * never mistaken for a finished one.
+   */
+  private static void compress(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    File compressed = new File(file.getPath() + ".gz");
+    File temp = new File(file.getPath() + ".gz.tmp");
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = new FileInputStream(file); OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), buffer.length)) {
+      int numBytes;
+      while ((numBytes = in.read(buffer)) != -1) {
+        out.write(buffer, 0, numBytes);
+      }
+    } catch (IOException e) {
+      temp.delete();
+      return;
+    }
+    if (temp.renameTo(compressed)) {
+      file.delete();
+    } else {
+      temp.delete();
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  /**
+   * Writes the given bytes to the current file. A new file is started first if the date has changed or these bytes would take the current file past
+   * its maximum size, so a single write is never split between files.
+   */
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (System.currentTimeMillis() >= nextMidnight || (maxFileBytes > 0 && currentBytes > 0 && currentBytes + len > maxFileBytes)) {
+      rotate();
+    }
+    current.write(b, off, len);
+    currentBytes += len;
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    if (!closed) {
+      current.flush();
+    }
+  }
+
+  /**
+   * Closes the current file. It is left uncompressed, since it is the newest file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      current.close();
+    }
+  }
+}
@@ -5,7 +5,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -13,9 +19,37 @@ import java.util.Calendar;
  */
 public class SavePrintStream extends java.io.PrintStream {
 
-  private final FileOutputStream fOut;
-  private final Object LOCK = new Object();
-  private boolean newLine;
+  private static final int MAX_LINE_BYTES = 64 * 1024;
+  private static final Charset CHARSET = Charset.defaultCharset(); // What PrintStream(OutputStream) encodes with
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+  private final OutputStream fOut;
+  private final AsyncFileWriter asyncWriter;
+  private final ThreadLocal<LineBuffer> lineBuffer = new ThreadLocal<LineBuffer>() {
+    @Override
+    protected LineBuffer initialValue() {
+      saveDeadThreadLines(); // Checked whenever a thread prints for the first time, since threads come and go together
+      return new LineBuffer();
+    }
+  };
+  private final Set<LineBuffer> partialLines = Collections.newSetFromMap(new ConcurrentHashMap<LineBuffer, Boolean>());
+  private volatile LogCapture.Format captureFormat;
+  private volatile String captureLevel;
+
+  /**
+   * What an asynchronous SavePrintStream does when its queue of pending writes is full.
+   */
+  public enum OverflowPolicy {
+
+    /**
+     * Wait until the writer thread makes room. No output is lost, but printing can block under heavy load.
+     */
+    BLOCK,
+    /**
+     * Drop the output from the file and count it in {@link SavePrintStream#getDroppedCount()}. Printing never blocks. The wrapped OutputStream still
+     * gets every print.
+     */
+    DROP
+  }
 
   /**
    * Creates a new SavePrintStream. Wraps the given OutputStream. Saves all output to Output YEAR-MONTH-DAY.txt in the classpath root. If the file
@@ -39,99 +73,422 @@ public class SavePrintStream extends java.io.PrintStream {
    */
   public SavePrintStream(OutputStream out, String filePath) throws FileNotFoundException {
     super(out);
+    fOut = new FileOutputStream(findFreeFile(filePath));
+    asyncWriter = null;
+  }
+
+  /**
+   * Creates a new asynchronous SavePrintStream. This works like {@link #SavePrintStream(java.io.OutputStream, java.lang.String)}, except that output
+   * is saved on a dedicated writer thread. Printing only queues the output, and the writer thread saves it in large batches. Everything queued is
+   * saved when this SavePrintStream is closed or the JVM shuts down.
+   *
+   * @param out The OutputStream to save
+   * @param filePath The file to save to, either relative or absolute.
+   * @param queueCapacity The maximum amount of lines waiting to be saved
+   * @param overflowPolicy What to do when queueCapacity lines are already waiting
+   * @throws java.io.FileNotFoundException If the given File does not exist
+   * @throws IllegalArgumentException If queueCapacity is less than 1 or overflowPolicy is null
+   */
+  public SavePrintStream(OutputStream out, String filePath, int queueCapacity, OverflowPolicy overflowPolicy) throws FileNotFoundException {
+    super(out);
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy cannot be null");
+    }
+    fOut = null;
+    asyncWriter = new AsyncFileWriter(new FileOutputStream(findFreeFile(filePath)), queueCapacity, overflowPolicy == OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Creates a new rolling SavePrintStream. Wraps the given OutputStream. Output is saved to a series of dated files based on the given path, eg
+   * Output.txt becomes Output 2018-01-31.txt, Output 2018-01-31 (2).txt and so on. A new file is started at midnight and whenever the current file
+   * reaches maxFileBytes. Finished files are gzipped in the background, and the oldest are deleted once there are more than maxFiles.
+   *
+   * @param out The OutputStream to save
+   * @param filePath The path to base file names on, either relative or absolute.
+   * @param maxFileBytes The size at which to start a new file, or 0 to only start new files at midnight
+   * @param maxFiles The maximum amount of files to keep, including the current one, or 0 to keep every file
+   * @throws java.io.FileNotFoundException If the first file cannot be created
+   * @throws IllegalArgumentException If maxFileBytes or maxFiles is negative
+   */
+  public SavePrintStream(OutputStream out, String filePath, long maxFileBytes, int maxFiles) throws FileNotFoundException {
+    super(out);
+    fOut = new RollingFileOutputStream(filePath, maxFileBytes, maxFiles);
+    asyncWriter = null;
+  }
+
+  /**
+   * Creates a new rolling, asynchronous SavePrintStream. This saves output to rolling files like
+   * {@link #SavePrintStream(java.io.OutputStream, java.lang.String, long, int)}, on a writer thread like
+   * {@link #SavePrintStream(java.io.OutputStream, java.lang.String, int, com.github.sunnybat.commoncode.utilities.SavePrintStream.OverflowPolicy)}.
+   *
+   * @param out The OutputStream to save
+   * @param filePath The path to base file names on, either relative or absolute.
+   * @param maxFileBytes The size at which to start a new file, or 0 to only start new files at midnight
+   * @param maxFiles The maximum amount of files to keep, including the current one, or 0 to keep every file
+   * @param queueCapacity The maximum amount of lines waiting to be saved
+   * @param overflowPolicy What to do when queueCapacity lines are already waiting
+   * @throws java.io.FileNotFoundException If the first file cannot be created
+   * @throws IllegalArgumentException If maxFileBytes or maxFiles is negative, queueCapacity is less than 1 or overflowPolicy is null
+   */
+  public SavePrintStream(OutputStream out, String filePath, long maxFileBytes, int maxFiles, int queueCapacity, OverflowPolicy overflowPolicy)
+      throws FileNotFoundException {
+    super(out);
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy cannot be null");
+    }
+    fOut = null;
+    asyncWriter = new AsyncFileWriter(new RollingFileOutputStream(filePath, maxFileBytes, maxFiles), queueCapacity,
+        overflowPolicy == OverflowPolicy.BLOCK);
+  }
+
+  private static File findFreeFile(String filePath) {
     File myFile = new File(filePath);
     int i = 2;
     while (myFile.exists()) {
       myFile = new File(filePath.substring(0, filePath.lastIndexOf(".")) + " (" + i++ + ")" + filePath.substring(filePath.lastIndexOf(".")));
     }
-    fOut = new FileOutputStream(myFile);
+    return myFile;
+  }
+
+  /**
+   * Saves each line as a structured record with a timestamp, thread name and level instead of as plain text. The wrapped OutputStream still gets
+   * plain text. This should be called before anything is printed, so the save file does not mix plain text and records.
+   *
+   * @param format The format to save records in, or null to save plain text
+   * @param level The level to record each line with, eg INFO for System.out or ERROR for System.err
+   * @throws IllegalArgumentException If format is not null and level is null
+   * @see LogCapture
+   */
+  public void setStructuredCapture(LogCapture.Format format, String level) {
+    if (format != null && level == null) {
+      throw new IllegalArgumentException("level cannot be null");
+    }
+    captureLevel = level;
+    captureFormat = format;
   }
 
+  /**
+   * Gets the amount of lines waiting to be saved. This is always 0 if this SavePrintStream is not asynchronous.
+   *
+   * @return The amount of lines waiting to be saved
+   */
+  public int getQueueDepth() {
+    return asyncWriter == null ? 0 : asyncWriter.getQueueDepth();
+  }
+
+  /**
+   * Gets the most lines that have been waiting to be saved at once. This is always 0 if this SavePrintStream is not asynchronous.
+   *
+   * @return The maximum queue depth
+   */
+  public int getMaxQueueDepth() {
+    return asyncWriter == null ? 0 : asyncWriter.getMaxQueueDepth();
+  }
+
+  /**
+   * Gets the amount of lines that were not saved because the queue was full. This is always 0 unless this SavePrintStream uses
+   * {@link OverflowPolicy#DROP}.
+   *
+   * @return The amount of dropped lines
+   */
+  public long getDroppedCount() {
+    return asyncWriter == null ? 0 : asyncWriter.getDroppedCount();
+  }
+
+  /**
+   * Writes the given byte to the wrapped OutputStream and saves it once its line is complete.
+   */
   @Override
-  public void println() {
-    markNewLine();
-    super.println();
+  public void write(int b) {
+    super.write(b);
+    lineBuffer.get().append(new byte[]{(byte) b}, 0, 1);
   }
 
+  /**
+   * Writes the given bytes to the wrapped OutputStream and saves them once their line is complete. Every print, println, printf and write ends up
+   * here, so the save file gets exactly the bytes the wrapped OutputStream does. PrintStream's monitor is only held while writing to the wrapped
+   * OutputStream, not while saving.
+   */
   @Override
-  public void println(Object x) {
-    markNewLine();
-    super.println(x);
+  public void write(byte[] buf, int off, int len) {
+    super.write(buf, off, len);
+    if (len > 0) {
+      lineBuffer.get().append(buf, off, len);
+    }
+  }
+
+  // PrintStream's own print, println and format methods encode text while holding its monitor and call write(byte[], int, int) from inside it, so
+  // they are overridden to encode first and then write once.
+  private void writeText(String text) {
+    byte[] bytes = text.getBytes(CHARSET);
+    write(bytes, 0, bytes.length);
   }
 
   @Override
-  public void println(String x) {
-    markNewLine();
-    super.println(x);
+  public void print(boolean b) {
+    writeText(String.valueOf(b));
+  }
+
+  @Override
+  public void print(char c) {
+    writeText(String.valueOf(c));
+  }
+
+  @Override
+  public void print(int i) {
+    writeText(String.valueOf(i));
+  }
+
+  @Override
+  public void print(long l) {
+    writeText(String.valueOf(l));
+  }
+
+  @Override
+  public void print(float f) {
+    writeText(String.valueOf(f));
+  }
+
+  @Override
+  public void print(double d) {
+    writeText(String.valueOf(d));
+  }
+
+  @Override
+  public void print(char[] s) {
+    writeText(new String(s));
+  }
+
+  @Override
+  public void print(String s) {
+    writeText(String.valueOf(s));
+  }
+
+  @Override
+  public void print(Object obj) {
+    writeText(String.valueOf(obj));
+  }
+
+  @Override
+  public void println() {
+    writeText(LINE_SEPARATOR);
   }
 
   @Override
   public void println(boolean x) {
-    markNewLine();
-    super.println(x);
+    writeText(x + LINE_SEPARATOR);
   }
 
   @Override
   public void println(char x) {
-    markNewLine();
-    super.println(x);
+    writeText(x + LINE_SEPARATOR);
   }
 
   @Override
-  public void println(char[] x) {
-    markNewLine();
-    super.println(x);
+  public void println(int x) {
+    writeText(x + LINE_SEPARATOR);
   }
 
   @Override
-  public void println(double x) {
-    markNewLine();
-    super.println(x);
+  public void println(long x) {
+    writeText(x + LINE_SEPARATOR);
   }
 
   @Override
   public void println(float x) {
-    markNewLine();
-    super.println(x);
+    writeText(x + LINE_SEPARATOR);
   }
 
   @Override
-  public void println(int x) {
-    markNewLine();
-    super.println(x);
+  public void println(double x) {
+    writeText(x + LINE_SEPARATOR);
   }
 
   @Override
-  public void println(long x) {
-    markNewLine();
-    super.println(x);
+  public void println(char[] x) {
+    writeText(new String(x) + LINE_SEPARATOR);
+  }
+
+  @Override
+  public void println(String x) {
+    writeText(x + LINE_SEPARATOR);
+  }
+
+  @Override
+  public void println(Object x) {
+    writeText(String.valueOf(x) + LINE_SEPARATOR);
+  }
+
+  @Override
+  public SavePrintStream format(String format, Object... args) {
+    writeText(String.format(format, args));
+    return this;
+  }
+
+  @Override
+  public SavePrintStream format(Locale l, String format, Object... args) {
+    writeText(String.format(l, format, args));
+    return this;
+  }
+
+  @Override
+  public SavePrintStream printf(String format, Object... args) {
+    return format(format, args);
+  }
+
+  @Override
+  public SavePrintStream printf(Locale l, String format, Object... args) {
+    return format(l, format, args);
   }
 
   /**
-   * Tells the PrintStream to print out a new line the next time print() is called.
+   * Saves a single line. Lines are saved with one write to the save file, so lines from different threads never interleave.
+   *
+   * @param line The array holding the line
+   * @param off The offset of the line in the array
+   * @param len The length of the line, including its line separator if it has one
+   * @param threadName The name of the thread that printed the line
    */
-  private void markNewLine() {
-    synchronized (LOCK) {
-      newLine = true;
+  private void saveLine(byte[] line, int off, int len, String threadName) {
+    LogCapture.Format format = captureFormat;
+    if (format != null) {
+      int end = off + len;
+      if (end > off && line[end - 1] == '\n') {
+        end--;
+        if (end > off && line[end - 1] == '\r') {
+          end--;
+        }
+      }
+      String message = new String(line, off, end - off, CHARSET);
+      save(LogCapture.encode(new LogRecord(System.currentTimeMillis(), threadName, captureLevel, message), format), 0, -1);
+    } else {
+      save(line, off, len);
     }
   }
 
-  @Override
-  public void print(String s) {
-    super.print(s);
-    if (fOut != null) {
-      if (s == null) {
-        s = "null"; // Still save "null" to stream
-      }
+  /**
+   * Saves the given bytes to the save file.
+   *
+   * @param bytes The bytes to save
+   * @param off The offset of the bytes to save
+   * @param len The amount of bytes to save, or -1 if bytes is a new array that can be saved as-is
+   */
+  private void save(byte[] bytes, int off, int len) {
+    if (asyncWriter != null) {
+      asyncWriter.write(len == -1 ? bytes : Arrays.copyOfRange(bytes, off, off + len)); // The ring keeps the array, so it cannot be shared
+    } else {
       try {
-        fOut.write(s.getBytes());
-        synchronized (LOCK) {
-          if (newLine) {
-            fOut.write(System.getProperty("line.separator").getBytes());
-            newLine = false;
+        fOut.write(bytes, off, len == -1 ? bytes.length : len); // A single write per line, so concurrent lines never interleave
+      } catch (IOException iOException) {
+      }
+    }
+  }
+
+  /**
+   * Saves every unfinished line. This is only used when closing, since a line saved early would be split in two.
+   */
+  private void savePartialLines() {
+    for (LineBuffer buffer : partialLines) {
+      buffer.drain();
+    }
+  }
+
+  /**
+   * Saves the unfinished lines of threads that have ended, so their buffers are not held until this SavePrintStream is closed.
+   */
+  private void saveDeadThreadLines() {
+    for (LineBuffer buffer : partialLines) {
+      if (!buffer.owner.isAlive()) {
+        buffer.drain();
+      }
+    }
+  }
+
+  /**
+   * Holds the current unfinished line for a single thread. Only its own thread appends to it, so its lock is uncontended except while closing or saving the lines of dead threads.
+   */
+  private class LineBuffer {
+
+    private final Thread owner = Thread.currentThread();
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    synchronized void append(byte[] buf, int off, int len) {
+      int end = off + len;
+      int lineStart = off;
+      for (int i = off; i < end; i++) {
+        if (buf[i] == '\n') {
+          if (length == 0) { // Save straight from buf when nothing is buffered, which is the common case for write(byte[])
+            saveLine(buf, lineStart, i + 1 - lineStart, owner.getName());
+          } else {
+            buffer(buf, lineStart, i + 1 - lineStart);
+            drain();
           }
+          lineStart = i + 1;
         }
-      } catch (IOException iOException) {
+      }
+      if (lineStart < end) {
+        buffer(buf, lineStart, end - lineStart);
+        if (length >= MAX_LINE_BYTES) { // Do not hold onto an endless line
+          drain();
+        }
+      }
+    }
+
+    private void buffer(byte[] buf, int off, int len) {
+      if (length == 0) {
+        partialLines.add(this);
+      }
+      if (length + len > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(length + len, bytes.length * 2));
+      }
+      System.arraycopy(buf, off, bytes, length, len);
+      length += len;
+    }
+
+    synchronized void drain() {
+      if (length == 0) {
+        return;
+      }
+      saveLine(bytes, 0, length, owner.getName());
+      length = 0;
+      partialLines.remove(this);
+      if (bytes.length > MAX_LINE_BYTES) {
+        bytes = new byte[256];
+      }
+    }
+  }
+
+  /**
+   * Flushes the wrapped OutputStream. If this SavePrintStream is asynchronous, this also waits until every line finished so far has been saved. Unfinished lines
+   * are only saved once they end or this SavePrintStream is closed.
+   */
+  @Override
+  public void flush() {
+    super.flush();
+    if (asyncWriter != null) {
+      try {
+        asyncWriter.flush();
+      } catch (IOException e) {
+        setError();
+      }
+    }
+  }
+
+  /**
+   * Closes the wrapped OutputStream and the save file. Everything printed so far is saved first, including unfinished lines.
+   */
+  @Override
+  public void close() {
+    super.close();
+    savePartialLines();
+    if (asyncWriter != null) {
+      asyncWriter.close();
+    } else {
+      try {
+        fOut.close();
+      } catch (IOException e) {
+        setError();
       }
     }
   }
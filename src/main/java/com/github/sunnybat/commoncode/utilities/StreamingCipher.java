@@ -0,0 +1,377 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts and decrypts streams with AES-GCM in fixed-size segments, so memory use stays constant no matter how much data passes through. A single
+ * GCM operation cannot release any plaintext until the whole ciphertext has been authenticated, which means decrypting a large file would hold all
+ * of it in memory. Each segment is instead authenticated on its own.
+ * <p>
+ * The format is a header of a version byte and a random 7-byte nonce prefix, followed by segments of {@link #SEGMENT_SIZE} plaintext bytes, each
+ * followed by its 16-byte tag. The last segment may be shorter, and is empty if the plaintext is a multiple of the segment size. The IV of each
+ * segment is the nonce prefix, the segment number and a flag marking the last segment, so segments cannot be reordered, dropped or truncated without
+ * failing authentication.
+ *
+ * @author SunnyBat
+ */
+class StreamingCipher {
+
+  private static final byte VERSION = 2;
+  private static final int SEGMENT_SIZE = 64 * 1024;
+  private static final int TAG_SIZE = 16;
+  private static final int PREFIX_SIZE = 7;
+  private static final int HEADER_SIZE = 1 + PREFIX_SIZE;
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final SecretKeySpec key;
+  private final int mode;
+  private final byte[] iv = new byte[12];
+  private Cipher cipher;
+  private int segment;
+  private boolean finished;
+
+  private StreamingCipher(SecretKeySpec key, int mode, byte[] header) throws IOException {
+    if (header[0] != VERSION) {
+      throw new IOException("Unsupported encrypted stream version " + header[0]);
+    }
+    this.key = key;
+    this.mode = mode;
+    System.arraycopy(header, 1, iv, 0, PREFIX_SIZE);
+    try {
+      cipher = CryptoPool.acquireCipher(TRANSFORMATION);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("AES-GCM is not available", e);
+    }
+  }
+
+  /**
+   * Creates an OutputStream that encrypts everything written to it. Closing it writes the final segment and closes out.
+   *
+   * @param key The AES key to encrypt with
+   * @param out The OutputStream to write the encrypted stream to
+   * @return The encrypting OutputStream
+   * @throws IOException If an IOException occurs while writing the header
+   */
+  static OutputStream encryptingStream(SecretKeySpec key, OutputStream out) throws IOException {
+    byte[] header = newHeader();
+    out.write(header);
+    return new EncryptingOutputStream(new StreamingCipher(key, Cipher.ENCRYPT_MODE, header), out);
+  }
+
+  /**
+   * Creates an InputStream that decrypts the given encrypted stream. Reading it throws an IOException if the stream has been modified or truncated.
+   *
+   * @param key The AES key to decrypt with
+   * @param in The InputStream to read the encrypted stream from
+   * @return The decrypting InputStream
+   */
+  static InputStream decryptingStream(SecretKeySpec key, InputStream in) {
+    return new DecryptingInputStream(key, in);
+  }
+
+  /**
+   * Encrypts everything read from the given channel until it reaches the end, writing the encrypted stream to out. Neither channel is closed.
+   *
+   * @param key The AES key to encrypt with
+   * @param in The channel to read plaintext from
+   * @param out The channel to write the encrypted stream to
+   * @return The amount of plaintext bytes encrypted
+   * @throws IOException If an IOException occurs while reading or writing
+   */
+  static long encrypt(SecretKeySpec key, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    byte[] header = newHeader();
+    writeFully(out, ByteBuffer.wrap(header));
+    return transform(new StreamingCipher(key, Cipher.ENCRYPT_MODE, header), in, out, SEGMENT_SIZE);
+  }
+
+  /**
+   * Decrypts the encrypted stream read from the given channel, writing the plaintext to out. Neither channel is closed. If the stream has been
+   * modified or truncated, an IOException is thrown; plaintext from segments before the bad one may already have been written.
+   *
+   * @param key The AES key to decrypt with
+   * @param in The channel to read the encrypted stream from
+   * @param out The channel to write plaintext to
+   * @return The amount of plaintext bytes decrypted
+   * @throws IOException If an IOException occurs while reading or writing, or the stream fails authentication
+   */
+  static long decrypt(SecretKeySpec key, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    return transform(new StreamingCipher(key, Cipher.DECRYPT_MODE, readHeader(in)), in, out, SEGMENT_SIZE + TAG_SIZE);
+  }
+
+  private static long transform(StreamingCipher cipher, ReadableByteChannel in, WritableByteChannel out, int inputSegmentSize) throws IOException {
+    try {
+      SegmentReader reader = new SegmentReader(cipher, in, inputSegmentSize);
+      long total = 0;
+      ByteBuffer output;
+      while ((output = reader.next()) != null) {
+        total += output.remaining();
+        writeFully(out, output);
+      }
+      return total;
+    } finally {
+      cipher.release();
+    }
+  }
+
+  private static byte[] newHeader() {
+    byte[] header = new byte[HEADER_SIZE];
+    header[0] = VERSION;
+    byte[] prefix = new byte[PREFIX_SIZE];
+    RANDOM.nextBytes(prefix);
+    System.arraycopy(prefix, 0, header, 1, PREFIX_SIZE);
+    return header;
+  }
+
+  private static byte[] readHeader(ReadableByteChannel in) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining()) {
+      if (in.read(header) == -1) {
+        throw new IOException("Encrypted stream is missing its header");
+      }
+    }
+    return header.array();
+  }
+
+  private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  /**
+   * Encrypts or decrypts the next segment.
+   *
+   * @param input The segment to process. This is fully consumed.
+   * @param output The buffer to write the result to
+   * @param last True if this is the last segment in the stream
+   * @throws IOException If the stream has already finished, or the segment fails authentication
+   */
+  private void process(ByteBuffer input, ByteBuffer output, boolean last) throws IOException {
+    if (finished) {
+      throw new IOException("Encrypted stream continues past its last segment");
+    } else if (segment == Integer.MAX_VALUE) {
+      throw new IOException("Encrypted stream is too long");
+    }
+    iv[PREFIX_SIZE] = (byte) (segment >>> 24);
+    iv[PREFIX_SIZE + 1] = (byte) (segment >>> 16);
+    iv[PREFIX_SIZE + 2] = (byte) (segment >>> 8);
+    iv[PREFIX_SIZE + 3] = (byte) segment;
+    iv[PREFIX_SIZE + 4] = (byte) (last ? 1 : 0);
+    try {
+      cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, iv));
+      cipher.doFinal(input, output);
+    } catch (AEADBadTagException e) {
+      throw new IOException("Encrypted stream has been modified or truncated", e);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Unable to process encrypted stream", e);
+    }
+    segment++;
+    finished = last;
+  }
+
+  /**
+   * Returns the Cipher to the pool. This StreamingCipher cannot be used afterwards.
+   */
+  private void release() {
+    CryptoPool.releaseCipher(cipher);
+    cipher = null;
+  }
+
+  /**
+   * Reads segments from a channel one at a time. One byte past each segment is read ahead, which is how the last segment is told apart from a full
+   * segment that happens to end at the end of the stream.
+   */
+  private static class SegmentReader {
+
+    private final StreamingCipher cipher;
+    private final ReadableByteChannel in;
+    private final int segmentSize;
+    private final ByteBuffer input;
+    private final ByteBuffer output;
+
+    SegmentReader(StreamingCipher cipher, ReadableByteChannel in, int segmentSize) {
+      this.cipher = cipher;
+      this.in = in;
+      this.segmentSize = segmentSize;
+      input = ByteBuffer.allocate(segmentSize + 1);
+      output = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+    }
+
+    /**
+     * Processes the next segment.
+     *
+     * @return The result, or null if the last segment has already been returned
+     * @throws IOException If an IOException occurs while reading, or the segment fails authentication
+     */
+    ByteBuffer next() throws IOException {
+      if (cipher.finished) {
+        return null;
+      }
+      int read = 0;
+      while (input.hasRemaining() && read != -1) {
+        read = in.read(input);
+      }
+      input.flip();
+      boolean last = input.remaining() <= segmentSize;
+      if (last && cipher.mode == Cipher.DECRYPT_MODE && input.remaining() < TAG_SIZE) {
+        throw new IOException("Encrypted stream has been truncated");
+      }
+      int lookahead = last ? input.limit() : input.limit() - 1;
+      ByteBuffer segment = input.duplicate();
+      segment.limit(lookahead);
+      output.clear();
+      cipher.process(segment, output, last);
+      input.position(lookahead);
+      input.compact();
+      output.flip();
+      return output;
+    }
+  }
+
+  /**
+   * Buffers written bytes into segments. A full segment is only encrypted once another byte is written, since until then it might be the last one.
+   */
+  private static class EncryptingOutputStream extends FilterOutputStream {
+
+    private final StreamingCipher cipher;
+    private final ByteBuffer plain = ByteBuffer.allocate(SEGMENT_SIZE);
+    private final ByteBuffer encrypted = ByteBuffer.allocate(SEGMENT_SIZE + TAG_SIZE);
+    private boolean closed;
+
+    EncryptingOutputStream(StreamingCipher cipher, OutputStream out) {
+      super(out);
+      this.cipher = cipher;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      while (len > 0) {
+        if (!plain.hasRemaining()) {
+          writeSegment(false);
+        }
+        int count = Math.min(len, plain.remaining());
+        plain.put(b, off, count);
+        off += count;
+        len -= count;
+      }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+      plain.flip();
+      encrypted.clear();
+      cipher.process(plain, encrypted, last);
+      plain.clear();
+      out.write(encrypted.array(), 0, encrypted.position());
+    }
+
+    /**
+     * Flushes the underlying stream. Bytes in the current segment are not written until the segment fills up or this stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        writeSegment(true);
+      } finally {
+        cipher.release();
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Decrypts one segment at a time as it is read.
+   */
+  private static class DecryptingInputStream extends InputStream {
+
+    private final SecretKeySpec key;
+    private final InputStream source;
+    private final ReadableByteChannel in;
+    private SegmentReader reader;
+    private StreamingCipher cipher;
+    private ByteBuffer plain;
+    private boolean closed;
+
+    DecryptingInputStream(SecretKeySpec key, InputStream source) {
+      this.key = key;
+      this.source = source;
+      in = Channels.newChannel(source);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int count = read(b, 0, 1);
+      return count == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      } else if (len == 0) {
+        return 0;
+      }
+      if (reader == null) {
+        cipher = new StreamingCipher(key, Cipher.DECRYPT_MODE, readHeader(in));
+        reader = new SegmentReader(cipher, in, SEGMENT_SIZE + TAG_SIZE);
+      }
+      while (plain == null || !plain.hasRemaining()) {
+        plain = reader.next();
+        if (plain == null) {
+          return -1;
+        }
+      }
+      int count = Math.min(len, plain.remaining());
+      plain.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return plain == null ? 0 : plain.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (cipher != null) {
+        cipher.release();
+      }
+      source.close();
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A hash of a file that is split into fixed-size chunks. Each chunk is hashed on its own, in parallel, and the root hash is the digest of every
+ * chunk digest concatenated in order. Because the chunk digests are kept, a single chunk can be checked (or downloaded again) without hashing the
+ * whole file. Note that the root hash is not the same as hashing the file directly with the same algorithm.
+ *
+ * @author SunnyBat
+ */
+public class TreeHash {
+
+  /**
+   * The default chunk size, in bytes.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private final String algorithm;
+  private final int chunkSize;
+  private final long fileSize;
+  private final byte[][] chunkDigests;
+  private final byte[] rootDigest;
+
+  private TreeHash(String algorithm, int chunkSize, long fileSize, byte[][] chunkDigests) throws NoSuchAlgorithmException {
+    this.algorithm = algorithm;
+    this.chunkSize = chunkSize;
+    this.fileSize = fileSize;
+    this.chunkDigests = chunkDigests;
+    MessageDigest mDigest = CryptoPool.acquireDigest(algorithm);
+    try {
+      for (byte[] digest : chunkDigests) {
+        mDigest.update(digest);
+      }
+      rootDigest = mDigest.digest();
+    } finally {
+      CryptoPool.releaseDigest(mDigest);
+    }
+  }
+
+  /**
+   * Hashes the given file in {@link #DEFAULT_CHUNK_SIZE} chunks on the common ForkJoinPool.
+   *
+   * @param file The file to hash
+   * @param algorithm The MessageDigest algorithm to use, eg SHA-256 or MD5
+   * @return The TreeHash of the file
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   * @throws IOException If an IOException occurs while reading the file
+   * @throws IllegalArgumentException if file or algorithm is null
+   */
+  public static TreeHash hash(Path file, String algorithm) throws NoSuchAlgorithmException, IOException {
+    return hash(file, algorithm, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Hashes the given file in {@link #DEFAULT_CHUNK_SIZE} chunks on the common ForkJoinPool.
+   *
+   * @param file The file to hash
+   * @param algorithm The MessageDigest algorithm to use, eg SHA-256 or MD5
+   * @return The TreeHash of the file
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   * @throws IOException If an IOException occurs while reading the file
+   * @throws IllegalArgumentException if file or algorithm is null
+   */
+  public static TreeHash hash(File file, String algorithm) throws NoSuchAlgorithmException, IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file cannot be null");
+    }
+    return hash(file.toPath(), algorithm);
+  }
+
+  /**
+   * Hashes the given file.
+   *
+   * @param file The file to hash
+   * @param algorithm The MessageDigest algorithm to use, eg SHA-256 or MD5
+   * @param chunkSize The size of each chunk, in bytes. The last chunk may be smaller.
+   * @param pool The ForkJoinPool to hash chunks on
+   * @return The TreeHash of the file
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   * @throws IOException If an IOException occurs while reading the file
+   * @throws IllegalArgumentException if file, algorithm or pool is null, or chunkSize is less than 1
+   */
+  public static TreeHash hash(Path file, final String algorithm, final int chunkSize, ForkJoinPool pool)
+      throws NoSuchAlgorithmException, IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file cannot be null");
+    } else if (algorithm == null) {
+      throw new IllegalArgumentException("algorithm cannot be null");
+    } else if (pool == null) {
+      throw new IllegalArgumentException("pool cannot be null");
+    } else if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize cannot be less than 1");
+    }
+    MessageDigest.getInstance(algorithm); // Fail fast instead of inside the pool
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      long chunkCount = (fileSize + chunkSize - 1) / chunkSize;
+      if (chunkCount > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("chunkSize is too small for a file of " + fileSize + " bytes");
+      }
+      byte[][] chunkDigests = new byte[(int) chunkCount][];
+      try {
+        pool.invoke(new ChunkTask(channel, algorithm, chunkSize, fileSize, chunkDigests, 0, chunkDigests.length));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      return new TreeHash(algorithm, chunkSize, fileSize, chunkDigests);
+    }
+  }
+
+  /**
+   * Hashes a single chunk of the given file.
+   *
+   * @param file The file to read from
+   * @param index The index of the chunk to hash
+   * @return The digest of the chunk
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   * @throws IOException If an IOException occurs while reading the file
+   * @throws IndexOutOfBoundsException If index is not a valid chunk index for this TreeHash
+   */
+  public byte[] hashChunk(Path file, int index) throws NoSuchAlgorithmException, IOException {
+    if (index < 0 || index >= chunkDigests.length) {
+      throw new IndexOutOfBoundsException("Chunk " + index + " does not exist");
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return hashChunk(channel, algorithm, chunkSize, fileSize, index);
+    }
+  }
+
+  /**
+   * Checks whether a single chunk of the given file matches the digest recorded for it.
+   *
+   * @param file The file to check
+   * @param index The index of the chunk to check
+   * @return True if the chunk matches, false if not
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   * @throws IOException If an IOException occurs while reading the file
+   * @throws IndexOutOfBoundsException If index is not a valid chunk index for this TreeHash
+   */
+  public boolean verifyChunk(Path file, int index) throws NoSuchAlgorithmException, IOException {
+    return MessageDigest.isEqual(hashChunk(file, index), chunkDigests[index]);
+  }
+
+  /**
+   * Gets the MessageDigest algorithm used.
+   *
+   * @return The algorithm
+   */
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Gets the size of each chunk. The last chunk may be smaller.
+   *
+   * @return The chunk size, in bytes
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Gets the size of the file that was hashed.
+   *
+   * @return The file size, in bytes
+   */
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  /**
+   * Gets the amount of chunks the file was split into.
+   *
+   * @return The amount of chunks
+   */
+  public int getChunkCount() {
+    return chunkDigests.length;
+  }
+
+  /**
+   * Gets the digest of the given chunk.
+   *
+   * @param index The index of the chunk
+   * @return A copy of the chunk's digest
+   * @throws IndexOutOfBoundsException If index is not a valid chunk index
+   */
+  public byte[] getChunkDigest(int index) {
+    return chunkDigests[index].clone();
+  }
+
+  /**
+   * Gets the digest of every chunk, in file order.
+   *
+   * @return A copy of every chunk digest
+   */
+  public byte[][] getChunkDigests() {
+    byte[][] copy = new byte[chunkDigests.length][];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = chunkDigests[i].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * Gets the root digest, which is the digest of every chunk digest concatenated in order.
+   *
+   * @return A copy of the root digest
+   */
+  public byte[] getRootDigest() {
+    return rootDigest.clone();
+  }
+
+  /**
+   * Gets the root digest as a hex String.
+   *
+   * @return The root digest as a hex String
+   */
+  public String getRootHexString() {
+    return HexCodec.encode(rootDigest);
+  }
+
+  private static byte[] hashChunk(FileChannel channel, String algorithm, int chunkSize, long fileSize, int index)
+      throws NoSuchAlgorithmException, IOException {
+    MessageDigest mDigest = CryptoPool.acquireDigest(algorithm);
+    try {
+      long position = (long) index * chunkSize;
+      MD5Utils.updateDigest(mDigest, channel, position, Math.min(chunkSize, fileSize - position));
+      return mDigest.digest();
+    } finally {
+      CryptoPool.releaseDigest(mDigest);
+    }
+  }
+
+  /**
+   * Hashes a range of chunks, splitting it in half until each task has a single chunk. Positional reads and maps on a FileChannel are safe to use
+   * from several threads at once, so every task shares the same channel.
+   */
+  private static class ChunkTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private final FileChannel channel;
+    private final String algorithm;
+    private final int chunkSize;
+    private final long fileSize;
+    private final byte[][] chunkDigests;
+    private final int from;
+    private final int to;
+
+    ChunkTask(FileChannel channel, String algorithm, int chunkSize, long fileSize, byte[][] chunkDigests, int from, int to) {
+      this.channel = channel;
+      this.algorithm = algorithm;
+      this.chunkSize = chunkSize;
+      this.fileSize = fileSize;
+      this.chunkDigests = chunkDigests;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ChunkTask(channel, algorithm, chunkSize, fileSize, chunkDigests, from, middle),
+            new ChunkTask(channel, algorithm, chunkSize, fileSize, chunkDigests, middle, to));
+        return;
+      }
+      try {
+        for (int i = from; i < to; i++) {
+          chunkDigests[i] = hashChunk(channel, algorithm, chunkSize, fileSize, i);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e); // Checked before any task is started
+      }
+    }
+  }
+}
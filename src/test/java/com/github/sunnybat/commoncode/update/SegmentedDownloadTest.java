@@ -0,0 +1,157 @@
+package com.github.sunnybat.commoncode.update;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs SegmentedDownload against a loopback HTTP server that serves Range requests with 206, or the whole file with 200.
+ *
+ * @author SunnyBat
+ */
+public class SegmentedDownloadTest {
+
+  private static final String ETAG = "\"v2\"";
+  private static final int FILE_SIZE = 1024 * 1024 + 123;
+
+  private final byte[] data = new byte[FILE_SIZE];
+  private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+  private volatile boolean honorRanges = true;
+  private HttpServer server;
+  private URL url;
+  private File target;
+
+  @Before
+  public void startServer() throws IOException {
+    new Random(42).nextBytes(data);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/update.jar", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        int first = 0;
+        int last = data.length - 1;
+        int status = 200;
+        if (honorRanges && range != null && (ifRange == null || ifRange.equals(ETAG))) {
+          ranges.add(range);
+          String[] bounds = range.substring("bytes=".length()).split("-");
+          first = Integer.parseInt(bounds[0]);
+          last = Integer.parseInt(bounds[1]);
+          status = 206;
+          exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + data.length);
+        }
+        exchange.sendResponseHeaders(status, last - first + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(data, first, last - first + 1);
+        } catch (IOException e) {
+          // The client stopped reading, eg after rejecting a 200
+        }
+      }
+    });
+    server.start();
+    url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/update.jar");
+    target = File.createTempFile("SegmentedDownloadTest", ".tmp");
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+    target.delete();
+  }
+
+  @Test
+  public void splitCoversWholeFile() {
+    long[][] segments = SegmentedDownload.split(FILE_SIZE, 4);
+    assertEquals(4, segments.length);
+    assertEquals(0, segments[0][0]);
+    for (int i = 1; i < segments.length; i++) {
+      assertEquals(segments[i - 1][2] + 1, segments[i][0]);
+      assertEquals(segments[i][0], segments[i][1]);
+    }
+    assertEquals(FILE_SIZE - 1, segments[segments.length - 1][2]);
+    assertEquals(1, SegmentedDownload.split(SegmentedDownload.MIN_SEGMENT_SIZE, 8).length);
+  }
+
+  @Test
+  public void downloadsEverySegmentWith206() throws Exception {
+    SegmentedDownload download = new SegmentedDownload(url, target, FILE_SIZE, SegmentedDownload.split(FILE_SIZE, 4), ETAG, new BandwidthLimiter());
+    download.start();
+    assertTrue(download.awaitCompletion(30000));
+    assertEquals(4, ranges.size());
+    assertEquals(FILE_SIZE, download.getBytesDownloaded());
+    assertEquals(FILE_SIZE, download.getContiguousBytes());
+    assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+  }
+
+  @Test
+  public void resumesPartialSegments() throws Exception {
+    long[][] segments = SegmentedDownload.split(FILE_SIZE, 4);
+    long alreadyWritten = 0;
+    try (RandomAccessFile access = new RandomAccessFile(target, "rw")) {
+      access.setLength(FILE_SIZE);
+      for (long[] segment : segments) {
+        segment[1] = segment[0] + (segment[2] - segment[0]) / 2;
+        access.seek(segment[0]);
+        access.write(data, (int) segment[0], (int) (segment[1] - segment[0]));
+        alreadyWritten += segment[1] - segment[0];
+      }
+    }
+    SegmentedDownload download = new SegmentedDownload(url, target, FILE_SIZE, segments, ETAG, new BandwidthLimiter());
+    download.start();
+    assertTrue(download.awaitCompletion(30000));
+    for (long[] segment : segments) {
+      assertTrue(ranges.contains("bytes=" + segment[1] + "-" + segment[2]));
+    }
+    assertEquals(FILE_SIZE - alreadyWritten, download.getBytesDownloaded());
+    assertEquals(FILE_SIZE, download.getBytesWritten());
+    assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+  }
+
+  @Test
+  public void failsWhenIfRangeNoLongerMatches() throws Exception {
+    SegmentedDownload download = new SegmentedDownload(url, target, FILE_SIZE, SegmentedDownload.split(FILE_SIZE, 2), "\"v1\"", new BandwidthLimiter());
+    download.start();
+    try {
+      download.awaitCompletion(30000);
+      fail("A 200 response to an If-Range request should fail the download");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("changed"));
+    }
+  }
+
+  @Test
+  public void failsWhenServerIgnoresRange() throws Exception {
+    honorRanges = false;
+    SegmentedDownload download = new SegmentedDownload(url, target, FILE_SIZE, SegmentedDownload.split(FILE_SIZE, 2), null, new BandwidthLimiter());
+    download.start();
+    try {
+      download.awaitCompletion(30000);
+      fail("A 200 response to a Range request should fail the download");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("HTTP 200"));
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.github.sunnybat.commoncode.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that values written by earlier versions of {@link Encryption} can still be read.
+ *
+ * @author SunnyBat
+ */
+public class EncryptionTest {
+
+  // Written by the original Encryption.encrypt() with os.name set to OS_NAME
+  private static final String OS_NAME = "Windows 10";
+  private static final String BASELINE_SHORT = "FN8UWLXglmo=";
+  private static final String BASELINE_UNICODE = "l7ImbvtjTjyI4BPpZ09ij6M4TyuGGZDwkf35Ex/BaFJMvX2TYeSIOQ==";
+  private static final String UNICODE_PLAIN = "Sunny \u00e9t\u00e9 \u2603 password 1234567890";
+
+  private String oldOsName;
+
+  @Before
+  public void setOsName() {
+    oldOsName = System.getProperty("os.name");
+    System.setProperty("os.name", OS_NAME);
+  }
+
+  @After
+  public void restoreOsName() {
+    System.setProperty("os.name", oldOsName);
+  }
+
+  @Test
+  public void decryptsBaselineValues() {
+    assertEquals("hunter2", Encryption.decrypt(BASELINE_SHORT));
+    assertEquals(UNICODE_PLAIN, Encryption.decrypt(BASELINE_UNICODE));
+  }
+
+  @Test
+  public void encryptMatchesBaseline() {
+    assertEquals(BASELINE_SHORT, Encryption.encrypt("hunter2"));
+    assertEquals(Arrays.asList(BASELINE_SHORT, null, BASELINE_UNICODE), Encryption.encryptAll(Arrays.asList("hunter2", null, UNICODE_PLAIN)));
+  }
+
+  @Test
+  public void decryptAllReadsBaselineValues() {
+    assertEquals(Arrays.asList("hunter2", null, UNICODE_PLAIN), Encryption.decryptAll(Arrays.asList(BASELINE_SHORT, "not encrypted", BASELINE_UNICODE)));
+  }
+
+  @Test
+  public void customSaltReadsAndMigratesBaselineValues() {
+    Encryption encryption = new Encryption(new byte[]{1, 2, 3});
+    assertEquals("hunter2", encryption.decryptProperty(BASELINE_SHORT));
+    String migrated = encryption.migrate(BASELINE_UNICODE);
+    assertTrue(migrated.startsWith("2:"));
+    assertEquals(UNICODE_PLAIN, encryption.decryptProperty(migrated));
+  }
+}